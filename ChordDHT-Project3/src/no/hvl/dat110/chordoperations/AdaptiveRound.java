@@ -0,0 +1,20 @@
+package no.hvl.dat110.chordoperations;
+
+/**
+ * @author tdoy
+ * dat110 - demo/exercise
+ */
+
+public interface AdaptiveRound extends Runnable {
+	
+	/**
+	 * Run one maintenance round
+	 * @return true if the round changed the successor, predecessor or fingers of the node or detected a failure
+	 */
+	public boolean runRound();
+	
+	public default void run() {
+		runRound();
+	}
+
+}
@@ -4,16 +4,13 @@ package no.hvl.dat110.chordoperations;
  * @author tdoy
  * dat110 - demo/exercise
  */
-import java.math.BigInteger;
-import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
-import java.rmi.registry.Registry;
 
 import no.hvl.dat110.node.Node;
 import no.hvl.dat110.rpc.interfaces.ChordNodeInterface;
 import no.hvl.dat110.util.Util;
 
-public class CheckPredecessor extends Thread {
+public class CheckPredecessor implements AdaptiveRound {
 	
 	private Node node;
 	
@@ -22,36 +19,30 @@ public class CheckPredecessor extends Thread {
 		this.node = node;
 	}
 	
-	public void run() {
+	public boolean runRound() {
 		
-		while(true) {			
-			try {
-				checkpred();
-				Thread.sleep(1000);
-			} catch (InterruptedException | RemoteException e) {
-				//e.printStackTrace();
-			}
+		try {
+			return checkpred();
+		} catch (RemoteException e) {
+			//e.printStackTrace();
+			return true;
 		}
 	}
 	
-	private void checkpred() throws RemoteException {
+	// returns true if the predecessor has failed
+	private boolean checkpred() throws RemoteException {
 		System.out.println("Checking the predecessor for Node: "+node.getNodeIP());
-		BigInteger predID = null;
+		ChordNodeInterface pred = node.getPredecessor();
+		if(pred == null)
+			return false;
 		
-		try {
-			predID = node.getPredecessor().getNodeID();
-			Registry registry = Util.locateRegistry(node.getPredecessor().getNodeIP());
-			ChordNodeInterface predNode = (ChordNodeInterface) registry.lookup(predID.toString());
-			if(predNode == null) {
-				node.setPredecessor(null);		// object not available remove predecessor
-				//System.out.println("predecessor for Node: "+node.getNodeIP()+" = "+node.getPredecessor());
-				return;
-			}
-
-		} catch (NullPointerException | RemoteException | NotBoundException e) {		
-			node.setPredecessor(null);		// if error occurs - predecessor can't be reached.. set the reference to null
-			//e.printStackTrace();
+		ChordNodeInterface predNode = Util.registryHandle(pred);		// a single remote call on the cached stub
+		if(predNode == null) {
+			node.setPredecessor(null);		// object not available remove predecessor
+			//System.out.println("predecessor for Node: "+node.getNodeIP()+" = "+node.getPredecessor());
+			return true;
 		}
 
+		return false;
 	}
 }
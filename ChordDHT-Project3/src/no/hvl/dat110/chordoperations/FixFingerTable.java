@@ -7,69 +7,83 @@ package no.hvl.dat110.chordoperations;
 
 import java.math.BigInteger;
 import java.rmi.RemoteException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
+import no.hvl.dat110.node.Node;
+import no.hvl.dat110.node.NodeRef;
+import no.hvl.dat110.node.RoutingTable;
 import no.hvl.dat110.rpc.interfaces.ChordNodeInterface;
 import no.hvl.dat110.util.Hash;
+import no.hvl.dat110.util.RingId;
 
-public class FixFingerTable extends Thread {
+public class FixFingerTable implements AdaptiveRound {
 	
-	private ChordNodeInterface chordnode;
+	private Node chordnode;
 	
-	public FixFingerTable(ChordNodeInterface chordnode) {
+	public FixFingerTable(Node chordnode) {
 		this.chordnode = chordnode;
 	}
 	
-	public void run() {
+	public boolean runRound() {
 		
-		while(true) {
-			try {
-				update();
-				Thread.sleep(1000);
-			} catch (RemoteException | InterruptedException e) {
-				//e.printStackTrace();
-			}
+		try {
+			return update();
+		} catch (RemoteException e) {
+			//e.printStackTrace();
+			return true;
 		}
 	}
 	
-	private void update() throws RemoteException {
+	// returns true if a finger changed or could not be looked up
+	private boolean update() throws RemoteException {
 		
 		System.out.println("Fixing the FingerTable for the Node: "+ chordnode.getNodeIP());
 		int s = Hash.sbit;
 		//int m = Hash.mbit;
 
 		List<ChordNodeInterface> fingers = chordnode.getFingerTable();
+		RoutingTable routing = chordnode.getRoutingTable();
 
-		BigInteger modulos = Hash.addressSize();			// we can't go beyond our address space 2^mbit
+		RingId nodeID = chordnode.getRingID();
+		boolean changed = false;
+	
+		BigInteger[] succnodeIDs = new BigInteger[s];
+		for(int i=0; i<s; i++) {
+			succnodeIDs[i] = nodeID.addPowerOfTwo(i).toBigInteger();			// do succ(n + 2^(i-1)) mod 2^mbit
+		}
+		
+		// all the fingers in one traversal - id and address come back with the lookup
+		Map<BigInteger, List<NodeRef>> owners = chordnode.findSuccessors(Arrays.asList(succnodeIDs));
 	
 		for(int i=0; i<s; i++) {
-
-			BigInteger nextsuccID = new BigInteger("2");
-			nextsuccID = nextsuccID.pow(i);
-			//System.out.println("nextsuccID: "+nextsuccID);
-			
-			BigInteger succnodeID = chordnode.getNodeID().add(nextsuccID);
-			succnodeID = succnodeID.mod(modulos);								// do succ(n + 2^(i-1)) mod 2^mbit
 			
-			//System.out.println("nodeID: "+chordnode.getNodeID()+" | succID: "+succnodeID);
+			//System.out.println("nodeID: "+chordnode.getNodeID()+" | succID: "+succnodeIDs[i]);
 			
-			ChordNodeInterface succnode = null;
-			try {
-				succnode = chordnode.findSuccessor(succnodeID);
-			} catch (RemoteException e) {
-				//e.printStackTrace();
-			}
+			List<NodeRef> succs = owners.get(succnodeIDs[i]);
+			NodeRef finger = succs == null ? null : succs.get(0);
 
-			if(succnode != null) {
+			if(finger == null) {
+				changed = true;								// the lookup failed
+			} else if(!finger.equals(routing.getFinger(i)) || i >= fingers.size()) {
+				ChordNodeInterface succnode = chordnode.stubOf(finger);	// stub only needed when the finger moves
+				if(succnode == null) {
+					changed = true;
+					continue;
+				}
 				try {
 					fingers.set(i, succnode);
 				}catch(IndexOutOfBoundsException e) {
 					fingers.add(i, succnode);			// first time initialization
-				}					
+				}
+				routing.setFinger(i, finger);				// keep the id and address of the finger locally
+				changed = true;
 			}
 		}
 
-		//System.out.println("FingerTable for "+chordnode.getNodeIP()+" => "+Util.toString(fingers));
+		//System.out.println("FingerTable for "+chordnode.getNodeIP()+" => "+Util.toString(routing.getFingers()));
+		return changed;
 	}
 
 }
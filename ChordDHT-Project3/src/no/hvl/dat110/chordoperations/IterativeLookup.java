@@ -0,0 +1,257 @@
+package no.hvl.dat110.chordoperations;
+
+/**
+ * @author tdoy
+ * dat110 - demo/exercise
+ */
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import no.hvl.dat110.node.LookupStep;
+import no.hvl.dat110.node.Node;
+import no.hvl.dat110.node.NodeRef;
+import no.hvl.dat110.rpc.interfaces.ChordNodeInterface;
+import no.hvl.dat110.util.RingId;
+import no.hvl.dat110.util.Util;
+
+public class IterativeLookup {
+	
+	/**
+	 * The caller drives the lookup: each hop is asked for its next hop (findNextHop) and the caller contacts 
+	 * that node itself. No RMI thread is held open on the intermediate nodes while the lookup is in progress.
+	 */
+	
+	public static final long HOP_TIMEOUT = 2000;		// ms to wait for a single hop to answer
+	public static final int HOP_RETRIES = 1;			// number of extra attempts on a hop that failed or timed out
+	public static final int MAX_HOPS = 64;				// give up if the lookup has not converged after this many hops
+	
+	private static final ExecutorService hopexecutor = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "lookup-hop");
+		t.setDaemon(true);
+		return t;
+	});
+	
+	private long hoptimeout;
+	private int retries;
+	private ChordNodeInterface origin;					// the node the lookup started at
+	
+	public IterativeLookup() {
+		this(HOP_TIMEOUT, HOP_RETRIES);
+	}
+	
+	public IterativeLookup(long hoptimeout, int retries) {
+		this.hoptimeout = hoptimeout;
+		this.retries = retries;
+	}
+	
+	/**
+	 * 
+	 * @param start the node where the lookup starts
+	 * @param keyid
+	 * @return the owner of keyid with the hop count and per-hop latency, or null if the lookup could not complete
+	 */
+	public LookupResult lookup(ChordNodeInterface start, BigInteger keyid) {
+		
+		origin = start;
+		RingId key = RingId.of(keyid);						// converted once - the hops compare ring ids only
+		List<Long> hoplatencies = new ArrayList<Long>();
+		
+		long begin = System.nanoTime();
+		LookupStep step = nextHop(start, key);
+		hoplatencies.add(System.nanoTime() - begin);
+		
+		for(int i=1; step != null; i++) {
+			
+			if(step.isOwner())
+				return new LookupResult(step.getNode(), step.getBackups(), hoplatencies);
+			
+			if(i == MAX_HOPS)
+				break;
+			
+			begin = System.nanoTime();
+			step = nextHop(step.getCandidates(), key);		// contact the next hop ourselves, or its first live backup
+			hoplatencies.add(System.nanoTime() - begin);
+		}
+		
+		return null;										// a hop and all its backups are unreachable - the lookup fails
+	}
+	
+	/**
+	 * Look up the owners of several keys in one traversal. The keys travel as one sorted batch that is split
+	 * at each hop by the node the keys are routed to next; the groups then continue side by side
+	 * @param start the node where the lookup starts
+	 * @param keyids
+	 * @return the owner of each key, in key order - keys whose lookup could not complete are left out
+	 */
+	public Map<BigInteger, LookupResult> lookupAll(ChordNodeInterface start, Collection<BigInteger> keyids) {
+		
+		origin = start;
+		Map<BigInteger, LookupResult> results = new LinkedHashMap<BigInteger, LookupResult>();
+		Map<RingId, BigInteger> keys = new LinkedHashMap<RingId, BigInteger>();
+		for(BigInteger keyid : new TreeSet<BigInteger>(keyids)) {
+			results.put(keyid, null);								// fixes the order of the results
+			keys.put(RingId.of(keyid), keyid);						// converted once for the whole traversal
+		}
+		
+		List<Batch> batches = new ArrayList<Batch>();
+		batches.add(new Batch(start, new ArrayList<RingId>(keys.keySet())));
+		
+		for(int i=0; i<MAX_HOPS && !batches.isEmpty(); i++) {
+			
+			// ask the next hop of every batch at the same time
+			List<Future<Map<RingId, LookupStep>>> answers = new ArrayList<Future<Map<RingId, LookupStep>>>();
+			for(Batch batch : batches)
+				answers.add(hopexecutor.submit(batch::nextHops));
+			
+			List<Batch> next = new ArrayList<Batch>();
+			for(int j=0; j<batches.size(); j++) {
+				Batch batch = batches.get(j);
+				Map<RingId, LookupStep> steps = null;
+				try {
+					steps = answers.get(j).get();
+				} catch (ExecutionException e) {
+					continue;										// the batch fails - its keys are left out
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					next.clear();									// give up - return what has been resolved so far
+					break;
+				}
+				
+				// split the batch by the node each key is routed to next
+				Map<List<NodeRef>, Batch> groups = new LinkedHashMap<List<NodeRef>, Batch>();
+				for(Map.Entry<RingId, LookupStep> entry : steps.entrySet()) {
+					LookupStep step = entry.getValue();
+					if(step.isOwner()) {
+						results.put(keys.get(entry.getKey()), new LookupResult(step.getNode(), step.getBackups(), batch.hoplatencies));
+					} else {
+						Batch group = groups.get(step.getCandidates());
+						if(group == null) {
+							group = new Batch(step.getCandidates(), batch.hoplatencies);
+							groups.put(step.getCandidates(), group);
+						}
+						group.keyids.add(entry.getKey());
+					}
+				}
+				next.addAll(groups.values());
+			}
+			batches = next;
+		}
+		
+		results.values().removeIf(result -> result == null);
+		return results;
+	}
+	
+	// try the candidates in order - a failed candidate costs one retried hop instead of the whole lookup
+	private LookupStep nextHop(List<NodeRef> candidates, RingId keyid) {
+		
+		for(NodeRef candidate : candidates) {
+			ChordNodeInterface node = candidate.resolve();	// stub resolved only now
+			LookupStep step = node == null ? null : nextHop(node, keyid);
+			if(step != null)
+				return step;
+			failed(candidate);
+		}
+		
+		return null;
+	}
+	
+	// forget an unreachable candidate - its cached stub, and its fingers when the lookup started at a local node
+	private void failed(NodeRef candidate) {
+		if(origin instanceof Node)
+			((Node) origin).fingerFailed(candidate);
+		else
+			Util.invalidateNode(candidate.getNodeID());
+	}
+	
+	// ask a single hop for the next node, with a timeout and retries
+	private LookupStep nextHop(ChordNodeInterface node, RingId keyid) {
+		return ask(() -> node.findNextHop(keyid));
+	}
+	
+	// make a remote call on a hop with a timeout and retries - null if it never answered
+	private <T> T ask(Callable<T> call) {
+		
+		for(int attempt=0; attempt<=retries; attempt++) {
+			Future<T> future = hopexecutor.submit(call);
+			try {
+				T answer = future.get(hoptimeout, TimeUnit.MILLISECONDS);
+				if(answer != null)
+					return answer;
+			} catch (TimeoutException e) {
+				future.cancel(true);
+			} catch (ExecutionException e) {
+				// remote call failed - try again
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+		
+		return null;
+	}
+
+	// keys that are routed through the same hop
+	private class Batch {
+		
+		private ChordNodeInterface start;					// set for the first hop only
+		private List<NodeRef> candidates;					// the next hop and its backups
+		private List<RingId> keyids = new ArrayList<RingId>();
+		private List<Long> hoplatencies;
+		
+		Batch(ChordNodeInterface start, List<RingId> keyids) {
+			this.start = start;
+			this.keyids.addAll(keyids);
+			this.hoplatencies = new ArrayList<Long>();
+		}
+		
+		Batch(List<NodeRef> candidates, List<Long> hoplatencies) {
+			this.candidates = candidates;
+			this.hoplatencies = new ArrayList<Long>(hoplatencies);
+		}
+		
+		// one remote call for the whole batch - keys the hop could not route are missing from the answer, and are
+		// asked again at its backup
+		Map<RingId, LookupStep> nextHops() {
+			
+			long begin = System.nanoTime();
+			Map<RingId, LookupStep> steps = null;
+			if(start != null) {
+				steps = ask(() -> start.findNextHops(keyids));
+			} else {
+				steps = new LinkedHashMap<RingId, LookupStep>();
+				List<RingId> remaining = new ArrayList<RingId>(keyids);
+				for(NodeRef candidate : candidates) {
+					ChordNodeInterface node = candidate.resolve();
+					List<RingId> asked = new ArrayList<RingId>(remaining);
+					Map<RingId, LookupStep> answer = node == null ? null : ask(() -> node.findNextHops(asked));
+					if(answer == null) {
+						failed(candidate);							// failed - try its backup
+						continue;
+					}
+					steps.putAll(answer);
+					remaining.removeAll(answer.keySet());
+					if(remaining.isEmpty())
+						break;
+				}
+			}
+			hoplatencies.add(System.nanoTime() - begin);
+			
+			return steps == null ? Collections.<RingId, LookupStep>emptyMap() : steps;
+		}
+	}
+
+}
@@ -5,6 +5,7 @@ package no.hvl.dat110.chordoperations;
  * dat110 - demo/exercise
  */
 
+import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.registry.Registry;
 
@@ -28,6 +29,8 @@ public class JoinRing {
 		Registry registry = Util.tryIPs();			// try the trackers IP addresses
 
 		if(registry != null) {
+			checkHashFunction(registry);			// refuse to join a ring that uses a different hash function
+			
 			try {
 				String haship = Hash.hashOf(Util.activeIP).toString();
 				//String haship = Hash.customHash(Util.activeIP).toString();
@@ -57,6 +60,27 @@ public class JoinRing {
 		}
 	}
 	
+	private void checkHashFunction(Registry registry) throws RemoteException {
+		
+		// the identifiers of the ring members were computed with their hash function - compare with any member
+		for(String name : registry.list()) {
+			String ringfunction = null;
+			try {
+				ChordNodeInterface member = (ChordNodeInterface) registry.lookup(name);
+				if(member.getNodeID().equals(chordnode.getNodeID()))
+					continue;									// this node has already bound itself
+				ringfunction = member.getHashFunction();
+			} catch (NotBoundException | RemoteException | ClassCastException e) {
+				continue;										// not a ring member or gone - try the next one
+			}
+			
+			if(!ringfunction.equals(chordnode.getHashFunction()))
+				throw new RemoteException("Can't join the ring: the ring uses "+ringfunction+" but "
+						+chordnode.getNodeIP()+" uses "+chordnode.getHashFunction());
+			return;
+		}
+	}
+	
 	private void createRing(ChordNodeInterface node) throws RemoteException {
 		
 		// set predecessor to nil - No predecessor for now
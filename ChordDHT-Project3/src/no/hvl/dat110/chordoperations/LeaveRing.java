@@ -11,7 +11,7 @@ import no.hvl.dat110.util.Util;
  * @author tdoy
  *
  */
-public class LeaveRing extends Thread {
+public class LeaveRing implements Runnable {
 	
 	/**
 	 * When a node n leaves, it should notify its successor s and hand over all its keys to s. 
@@ -22,25 +22,17 @@ public class LeaveRing extends Thread {
 	 */
 	
 	private ChordNodeInterface chordnode;
-	private long ttl;
-	private boolean loopforever;
 	
-	public LeaveRing(ChordNodeInterface chordnode, long ttl, boolean loopforever) {
+	public LeaveRing(ChordNodeInterface chordnode) {
 		this.chordnode = chordnode;
-		this.ttl = ttl;
-		this.loopforever = loopforever;
 	}
 	
+	// scheduled once, ttl ms after the node has joined the ring
 	public void run() {
-		while (true) {
-			
-			try {
-				Thread.sleep(ttl);
-				if(!loopforever)
-					updatesandleave();
-			}catch(InterruptedException | RemoteException e) {
-				//e.printStackTrace();
-			}
+		try {
+			updatesandleave();
+		}catch(RemoteException e) {
+			//e.printStackTrace();
 		}
 	}
 	
@@ -0,0 +1,59 @@
+package no.hvl.dat110.chordoperations;
+
+/**
+ * @author tdoy
+ * dat110 - demo/exercise
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+import no.hvl.dat110.node.NodeRef;
+
+public class LookupResult {
+	
+	private NodeRef owner;
+	private List<NodeRef> backups;			// the successors of the owner - they take over the key if the owner fails
+	private List<Long> hoplatencies;		// latency of each hop in nanoseconds, in the order the hops were made
+	
+	public LookupResult(NodeRef owner, List<Long> hoplatencies) {
+		this(owner, new ArrayList<NodeRef>(), hoplatencies);
+	}
+	
+	public LookupResult(NodeRef owner, List<NodeRef> backups, List<Long> hoplatencies) {
+		this.owner = owner;
+		this.backups = new ArrayList<NodeRef>(backups);
+		this.hoplatencies = new ArrayList<Long>(hoplatencies);
+	}
+	
+	public NodeRef getOwner() {
+		return owner;
+	}
+	
+	/**
+	 * @return the owner followed by its backups
+	 */
+	public List<NodeRef> getSuccessors() {
+		List<NodeRef> successors = new ArrayList<NodeRef>();
+		successors.add(owner);
+		successors.addAll(backups);
+		return successors;
+	}
+	
+	public int getHops() {
+		return hoplatencies.size();
+	}
+	
+	public List<Long> getHopLatencies() {
+		return hoplatencies;
+	}
+	
+	public long getTotalLatency() {
+		long total = 0;
+		for(long latency : hoplatencies) {
+			total += latency;
+		}
+		return total;
+	}
+
+}
@@ -0,0 +1,100 @@
+package no.hvl.dat110.chordoperations;
+
+/**
+ * @author tdoy
+ * dat110 - demo/exercise
+ */
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MaintenanceScheduler {
+	
+	/**
+	 * Runs the maintenance tasks of a node (stabilization protocols, file distribution, ...) on a bounded 
+	 * executor shared by all the nodes in this JVM, instead of one sleeping thread per task.
+	 */
+	
+	public static final int POOL_SIZE = Math.max(2, Runtime.getRuntime().availableProcessors());
+	
+	private static final AtomicInteger threadcount = new AtomicInteger(0);
+	private static final ScheduledExecutorService executor = Executors.newScheduledThreadPool(POOL_SIZE, r -> {
+		Thread t = new Thread(r, "chord-maintenance-"+threadcount.incrementAndGet());
+		return t;
+	});
+	
+	private List<MaintenanceTask> tasks = new CopyOnWriteArrayList<MaintenanceTask>();
+	
+	/**
+	 * Run round every period ms (+/- jitter ms). The first round starts after a random delay within one 
+	 * period so that the tasks of different nodes don't wake up together.
+	 */
+	public MaintenanceTask schedule(String name, Runnable round, long period, long jitter) {
+		MaintenanceTask task = new MaintenanceTask(name, round, executor, period, jitter, true);
+		tasks.add(task);
+		task.start(ThreadLocalRandom.current().nextLong(period + 1));
+		return task;
+	}
+	
+	/**
+	 * Run an adaptive round every minperiod to maxperiod ms. The period backs off while the round reports no 
+	 * changes. A change seen by any adaptive task of this scheduler resets all of them to their minimum period.
+	 */
+	public MaintenanceTask scheduleAdaptive(String name, AdaptiveRound round, long minperiod, long maxperiod, long jitter) {
+		MaintenanceTask task = new MaintenanceTask(name, round, executor, minperiod, maxperiod, jitter, true, this::onChurn);
+		tasks.add(task);
+		task.start(ThreadLocalRandom.current().nextLong(minperiod + 1));
+		return task;
+	}
+	
+	/**
+	 * Churn has been observed (a change or a failure) - run the stabilization tasks at their fast period
+	 */
+	public void onChurn() {
+		for(MaintenanceTask task : tasks) {
+			task.speedUp();
+		}
+	}
+	
+	/**
+	 * @return the current period of each task in ms
+	 */
+	public Map<String, Long> getPeriods() {
+		Map<String, Long> periods = new LinkedHashMap<String, Long>();
+		for(MaintenanceTask task : tasks) {
+			periods.put(task.getName(), task.getPeriod());
+		}
+		return periods;
+	}
+	
+	/**
+	 * Run round once after delay ms
+	 */
+	public MaintenanceTask scheduleOnce(String name, Runnable round, long delay) {
+		MaintenanceTask task = new MaintenanceTask(name, round, executor, delay, 0, false);
+		tasks.add(task);
+		task.start(delay);
+		return task;
+	}
+	
+	public List<MaintenanceTask> getTasks() {
+		return tasks;
+	}
+	
+	/**
+	 * Cancel all the tasks of this scheduler. Rounds in progress are allowed to finish
+	 */
+	public void cancel() {
+		for(MaintenanceTask task : tasks) {
+			task.cancel();
+		}
+		tasks.clear();
+	}
+
+}
@@ -0,0 +1,166 @@
+package no.hvl.dat110.chordoperations;
+
+/**
+ * @author tdoy
+ * dat110 - demo/exercise
+ */
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MaintenanceTask implements Runnable {
+	
+	/**
+	 * A maintenance round (e.g. StabilizeRing) run periodically on the shared executor. The next round is 
+	 * scheduled when the current one completes, so rounds of the same task never overlap.
+	 * 
+	 * An AdaptiveRound backs off: the period doubles after every round without changes, up to maxperiod, 
+	 * and drops back to the minimum period when a change or failure is seen.
+	 * 
+	 * Every schedule belongs to a generation. speedUp() starts a new one, and a round of an older generation 
+	 * neither runs nor reschedules itself, so there is only ever one chain of rounds.
+	 */
+	
+	private String name;
+	private Runnable round;
+	private ScheduledExecutorService executor;
+	private long minperiod;						// ms between the end of a round and the start of the next
+	private long maxperiod;
+	private volatile long period;				// current period - between minperiod and maxperiod
+	private long jitter;						// the period is varied randomly by up to +/- jitter ms
+	private boolean periodic;
+	private Runnable onchange;					// called when an adaptive round reports a change
+	
+	private AtomicBoolean running = new AtomicBoolean(false);
+	private AtomicLong overruns = new AtomicLong(0);	// rounds that took longer than the period
+	private volatile boolean cancelled = false;
+	private volatile ScheduledFuture<?> future;
+	private AtomicLong generation = new AtomicLong(0);	// the chain of rounds that may run and reschedule
+	
+	MaintenanceTask(String name, Runnable round, ScheduledExecutorService executor, long period, long jitter, boolean periodic) {
+		this(name, round, executor, period, period, jitter, periodic, null);
+	}
+	
+	MaintenanceTask(String name, Runnable round, ScheduledExecutorService executor, long minperiod, long maxperiod, 
+			long jitter, boolean periodic, Runnable onchange) {
+		this.name = name;
+		this.round = round;
+		this.executor = executor;
+		this.minperiod = minperiod;
+		this.maxperiod = Math.max(minperiod, maxperiod);
+		this.period = minperiod;
+		this.jitter = jitter;
+		this.periodic = periodic;
+		this.onchange = onchange;
+	}
+	
+	void start(long delay) {
+		schedule(generation.get(), delay);
+	}
+	
+	private void schedule(long chain, long delay) {
+		future = executor.schedule(() -> run(chain), delay, TimeUnit.MILLISECONDS);
+	}
+	
+	@Override
+	public void run() {
+		run(generation.get());
+	}
+	
+	private void run(long chain) {
+		
+		if(cancelled || chain != generation.get())
+			return;												// superseded by speedUp()
+		if(!running.compareAndSet(false, true)) {
+			schedule(chain, nextDelay());						// a round of the old chain is still finishing
+			return;
+		}
+		
+		long begin = System.currentTimeMillis();
+		boolean changed = false;
+		try {
+			if(round instanceof AdaptiveRound)
+				changed = ((AdaptiveRound) round).runRound();
+			else
+				round.run();
+		} catch (RuntimeException e) {
+			// a failed round must not stop the task - the next round tries again
+			changed = true;
+		} finally {
+			if(System.currentTimeMillis() - begin > period)
+				overruns.incrementAndGet();
+			running.set(false);
+		}
+		
+		if(changed) {
+			period = minperiod;
+			if(onchange != null)
+				onchange.run();
+		} else {
+			period = Math.min(period * 2, maxperiod);				// nothing changed - back off
+		}
+		
+		if(periodic && !cancelled && chain == generation.get())
+			schedule(chain, nextDelay());
+	}
+	
+	/**
+	 * Go back to the minimum period now, e.g. because another task or the node has seen churn
+	 */
+	public void speedUp() {
+		if(period == minperiod || cancelled)
+			return;
+		period = minperiod;
+		
+		ScheduledFuture<?> current = future;
+		if(current != null)
+			current.cancel(false);
+		schedule(generation.incrementAndGet(), nextDelay());	// replace the long wait with a short one - a round
+																// still running does not reschedule after this
+	}
+	
+	private long nextDelay() {
+		if(jitter <= 0)
+			return period;
+		return Math.max(0, period + ThreadLocalRandom.current().nextLong(-jitter, jitter + 1));
+	}
+	
+	public void cancel() {
+		cancelled = true;
+		ScheduledFuture<?> current = future;
+		if(current != null)
+			current.cancel(false);				// let a running round finish
+	}
+	
+	public boolean isCancelled() {
+		return cancelled;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * @return the current period in ms
+	 */
+	public long getPeriod() {
+		return period;
+	}
+	
+	public long getMinPeriod() {
+		return minperiod;
+	}
+	
+	public long getMaxPeriod() {
+		return maxperiod;
+	}
+	
+	public long getOverruns() {
+		return overruns.get();
+	}
+
+}
@@ -5,17 +5,17 @@ package no.hvl.dat110.chordoperations;
  * dat110 - demo/exercise
  */
 
-import java.math.BigInteger;
-import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
-import java.rmi.registry.Registry;
+import java.util.ArrayList;
+import java.util.List;
 
 import no.hvl.dat110.node.Node;
+import no.hvl.dat110.node.NodeRef;
+import no.hvl.dat110.node.RingState;
 import no.hvl.dat110.rpc.interfaces.ChordNodeInterface;
-import no.hvl.dat110.util.Util;
 
 
-public class StabilizeRing extends Thread {
+public class StabilizeRing implements AdaptiveRound {
 	
 	private Node node;
 	
@@ -23,59 +23,68 @@ public class StabilizeRing extends Thread {
 		this.node = node;
 	}
 	
-	public void run() {
-		while (true) {
-			
-			try {
-				stabilize();
-				Thread.sleep(1000);
-			}catch(Exception e) {
-				//e.printStackTrace();
-			}
+	public boolean runRound() {
+		try {
+			return stabilize();
+		}catch(Exception e) {
+			//e.printStackTrace();
+			return true;
 		}
 	}
 	
-	private void stabilize() throws RemoteException, NotBoundException {
+	// returns true if the successor changed or can't be reached
+	private boolean stabilize() throws RemoteException {
 		
 		System.out.println("Stabilizing ring from "+node.getNodeIP()+"...");
-		ChordNodeInterface succ = node.getSuccessor();						// get the successor of node
+		NodeRef succ = node.getSuccessorRef();								// get the successor of node
+		if(succ == null)
+			return true;
 		
-		ChordNodeInterface succnode = null;
-		ChordNodeInterface predsucc = null;
-		Registry registry = Util.locateRegistry(succ.getNodeIP());
-
-		if(registry == null)
-			return;
+		ChordNodeInterface succnode = node.stubOf(succ);
+		RingState succstate = null;
+		try {
+			if(succnode != null)
+				succstate = succnode.getRingState(false);				// one remote call: the successor's view of the ring
+		} catch (RemoteException e) {
+			//e.printStackTrace();
+		}
 		
-		succnode = (ChordNodeInterface) registry.lookup(succ.getNodeID().toString());	// confirm the successor is alive
-		predsucc = succnode.getPredecessor(); 							// get the predecessor of the successor of this node
+		if(succstate == null) {
+			node.successorFailed(succ);									// the successor is not alive - fail over to the next in the list
+			return true;
+		}
 		
-		BigInteger nodeID = node.getNodeID();
-		BigInteger succID = succnode.getNodeID();
-
-		BigInteger predsuccID = null;
+		NodeRef self = node.getSelfRef();
+		NodeRef predsucc = succstate.getPredecessor(); 					// the predecessor of the successor of this node
+		boolean changed = false;
 		
-		if(predsucc != null) {
-			predsuccID = predsucc.getNodeID();
-			
-			if(predsuccID.compareTo(node.getNodeID())==0)			// this is important for 2 ring members - if (predsucc(node) == node)
-				return;
-
-			//predID.compareTo(nodeID)==1 && predID.compareTo(succID)==-1
-			boolean cond = Util.computeLogic(predsuccID, nodeID.add(new BigInteger("1")), succID.add(new BigInteger("1")));
-			//System.out.println(cond+" = "+predID+" is btw "+nodeID.add(new BigInteger("1"))+" and "+succID.add(new BigInteger("1")));
-			if(cond) {
-				node.setSuccessor(predsucc);
-											
-				try {
-					predsucc.notifySuccessor(node);			// notify successor (predsucc) that it has a new predecessor (node)
-				} catch (RemoteException e) {
-					// TODO Auto-generated catch block
-					//e.printStackTrace();
-				}	
+		// predsuccID is a member of the set {nodeID+1,...,succID-1}: predsucc is a closer successor
+		List<NodeRef> succsuccessors = succstate.getSuccessors();
+		if(predsucc != null && predsucc.getRingID().inOpen(self.getRingID(), succ.getRingID())) {
+			node.setSuccessorRef(predsucc);
+			succsuccessors = new ArrayList<NodeRef>(succsuccessors);
+			succsuccessors.add(0, succ);								// the old successor now comes after predsucc
+			succ = predsucc;
+			changed = true;
+		}
+		
+		// refresh our successor list from the successor's
+		if(node.refreshSuccessors(succsuccessors))
+			changed = true;
+		
+		// notify successor that it has a new predecessor (node) - not needed if it already knows
+		if(!succ.equals(self) && (changed || !self.equals(predsucc))) {
+			ChordNodeInterface newsucc = node.stubOf(succ);
+			try {
+				if(newsucc != null)
+					newsucc.notifySuccessor(self);
+			} catch (RemoteException e) {
+				node.successorFailed(succ);
+				changed = true;
 			}
 		}
 		
 		System.out.println("Finished stabilizing chordring from "+node.getNodeIP());
+		return changed;
 	}
 }
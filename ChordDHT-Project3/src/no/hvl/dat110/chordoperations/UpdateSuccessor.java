@@ -8,48 +8,64 @@ package no.hvl.dat110.chordoperations;
 import java.math.BigInteger;
 import java.rmi.RemoteException;
 
+import no.hvl.dat110.node.Node;
+import no.hvl.dat110.node.NodeRef;
+import no.hvl.dat110.node.RingState;
 import no.hvl.dat110.rpc.interfaces.ChordNodeInterface;
+import no.hvl.dat110.util.RingId;
 
 
-public class UpdateSuccessor extends Thread {
+public class UpdateSuccessor implements AdaptiveRound {
 	
-	private ChordNodeInterface chordnode;
+	private Node chordnode;
 	
-	public UpdateSuccessor(ChordNodeInterface chordnode) {
+	public UpdateSuccessor(Node chordnode) {
 		this.chordnode = chordnode;
 	}
 	
-	public void run() {
-		while(true) {
-			try {
-				update();
-				Thread.sleep(1000);
-			} catch (RemoteException | InterruptedException e) {
-				//e.printStackTrace();
-			}
+	public boolean runRound() {
+		try {
+			return update();
+		} catch (RemoteException e) {
+			//e.printStackTrace();
+			return true;
 		}
 	}
 	
-	private void update() throws RemoteException {
+	// returns true if the successor changed or could not be looked up
+	private boolean update() throws RemoteException {
 		System.out.println("Updating the successor for the Node: "+ chordnode.getNodeIP());
-		BigInteger succid = chordnode.getNodeID().add(new BigInteger("1")); 					// get the succid of (nodestub+1)	
+		BigInteger succid = chordnode.getRingID().add(RingId.ONE).toBigInteger(); 			// get the succid of (nodestub+1) mod 2^mbit	
 		//System.out.println("keyid: "+chordnode.getNodeID()+".findsuccessor."+succid);
-		ChordNodeInterface succnodestub = chordnode.findSuccessor(succid);						// finds the successor (succ(nodestub+1) of this node(remote call)
-		ChordNodeInterface predsucc = succnodestub.getPredecessor();							// get the predecessor of the successor of this node
+		NodeRef succref = chordnode.findSuccessorRef(succid);									// finds the successor (succ(nodestub+1) of this node(remote call)
+		ChordNodeInterface succnodestub = succref == null ? null : chordnode.stubOf(succref);
+		if(succnodestub == null)
+			return true;
+		RingState succstate = succnodestub.getRingState(false);								// one remote call for its id and predecessor
+		NodeRef succ = succstate.getNode();
+		NodeRef predsucc = succstate.getPredecessor();											// get the predecessor of the successor of this node
+		NodeRef self = chordnode.getSelfRef();
+		
+		if(predsucc == null)
+			return false;																	// the successor has no predecessor yet
 		
 		try {
-			if(chordnode.getNodeIP().equals(predsucc.getNodeIP())){
-				return;
+			// nothing to do if this node is the predecessor of its successor, or predsucc is not between them
+			if(predsucc.equals(self) || !predsucc.getRingID().inOpen(self.getRingID(), succ.getRingID())){
+				return false;
 			} else {
-				chordnode.getFingerTable().set(0, predsucc);									// update the first successor (entry) of the finger table				
-				chordnode.setSuccessor(predsucc); 												// update the immediate successor (same as FT[0]	
-				predsucc.notifySuccessor(chordnode); 											// notify succnodestub of this node as its predecessor
+				ChordNodeInterface predsuccstub = chordnode.stubOf(predsucc);
+				chordnode.getFingerTable().set(0, predsuccstub);								// update the first successor (entry) of the finger table				
+				chordnode.setSuccessorRef(predsucc); 											// update the immediate successor (same as FT[0]	
+				chordnode.getRoutingTable().setFinger(0, predsucc);							// and its local routing entry
+				predsuccstub.notifySuccessor(self); 											// notify succnodestub of this node as its predecessor
 				update();
+				return true;
 			}
 			
 		}catch(Exception e) 
 		{
-			//
+			return true;
 		}
 		
 	}
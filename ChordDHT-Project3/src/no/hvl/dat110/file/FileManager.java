@@ -13,24 +13,32 @@ import java.io.IOException;
 import java.math.BigInteger;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BooleanSupplier;
 
 import no.hvl.dat110.node.Message;
 import no.hvl.dat110.node.Node;
+import no.hvl.dat110.node.NodeRef;
 import no.hvl.dat110.node.OperationType;
 import no.hvl.dat110.node.Operations;
-import no.hvl.dat110.rpc.StaticTracker;
+import no.hvl.dat110.node.Quorum;
 import no.hvl.dat110.rpc.interfaces.ChordNodeInterface;
+import no.hvl.dat110.util.Async;
 import no.hvl.dat110.util.Hash;
 import no.hvl.dat110.util.Util;
 
-public class FileManager extends Thread {
+public class FileManager implements Runnable {
 	
 	private BigInteger[] replicafiles;					// array stores replicated files for distribution to matching nodes
 	private int nfiles = 4;								// let's assume each node manages nfiles (5 for now) - can be changed from the constructor
@@ -44,41 +52,52 @@ public class FileManager extends Thread {
 	
 	public void run() {
 		
-		while(true) {
-			try {
-				distributeReplicaFiles();
-				Thread.sleep(3000);
-			} catch (InterruptedException | IOException e) {
-				e.printStackTrace();
-			}
+		try {
+			distributeReplicaFiles();
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
 	}
 	
 	public void createReplicaFiles(String filename) {
 		
-		for(int i=0; i<nfiles; i++) {
-			String replicafile = filename + i;
-			replicafiles[i] = Hash.hashOf(replicafile);	
-
-		}
+		replicafiles = Hash.hashOf(filename, nfiles);		// replicafile i = filename + i
 		//System.out.println("Generated replica file keyids for "+chordnode.getNodeIP()+" => "+Arrays.asList(replicafiles));
 	}
 	
 	public void distributeReplicaFiles() throws IOException {
 		
-		// lookup(keyid) operation for each replica
-		// findSuccessor() function should be invoked to find the node with identifier id >= keyid and store the file (create & write the file)
+		// lookup(keyid) operation for all the replicas at once
+		// findSuccessors() finds the node with identifier id >= keyid for each replica in one traversal and store the file (create & write the file)
 		
-		for(int i=0; i<replicafiles.length; i++) {
-			BigInteger fileID = (BigInteger) replicafiles[i];
-			ChordNodeInterface succOfFileID = chordnode.findSuccessor(fileID);
+		Map<BigInteger, List<NodeRef>> owners = chordnode.findSuccessors(Arrays.asList(replicafiles));
+		
+		for(Map.Entry<BigInteger, List<NodeRef>> owner : owners.entrySet()) {
+			BigInteger fileID = owner.getKey();
 			
 			// if we find the successor node of fileID, we can assign the file to the successor. This should always work even with one node
-			if(succOfFileID != null) {
-				succOfFileID.addToFileKey(fileID);
-				String initialcontent = chordnode.getNodeIP()+"\n"+chordnode.getNodeID();
-				succOfFileID.createFileInNodeLocalDirectory(initialcontent, fileID);			// copy the file to the successor local dir
-			}			
+			// if the successor fails, its own successor has taken over fileID - try the next in the list
+			for(NodeRef succref : owner.getValue()) {
+				if(storeReplica(succref, fileID))
+					break;
+			}
+		}
+	}
+	
+	private boolean storeReplica(NodeRef succref, BigInteger fileID) throws RemoteException {
+		
+		ChordNodeInterface succOfFileID = Util.lookupNode(succref.getNodeID(), succref.getNodeIP());
+		if(succOfFileID == null)
+			return false;
+		
+		try {
+			succOfFileID.addToFileKey(fileID);
+			String initialcontent = chordnode.getNodeIP()+"\n"+chordnode.getNodeID();
+			succOfFileID.createFileInNodeLocalDirectory(initialcontent, fileID);			// copy the file to the successor local dir
+			return true;
+		} catch (RemoteException e) {
+			Util.invalidateNode(succref.getNodeID());
+			return false;
 		}
 	}
 	
@@ -95,20 +114,57 @@ public class FileManager extends Thread {
 
 		Set<Message> messages = new HashSet<>();
 
-		for (BigInteger id : replicafiles) {
-			// if we find the successor node of fileID, we can retrieve the message associated with a fileID by calling the getFilesMetadata() of chordnode.
-			ChordNodeInterface node = chordnode.findSuccessor(id);
-			if (node != null) {
-				Message message = node.getFilesMetadata().get(id);
+		// the owners of all the replica keyids in one traversal of the ring
+		Map<BigInteger, List<NodeRef>> owners = chordnode.findSuccessors(Arrays.asList(replicafiles));
+
+		// ask the owners first, and the backups of the owners that can't be reached - the successor that took over
+		// from a failed owner answers for its replicas
+		Map<BigInteger, List<NodeRef>> pending = new LinkedHashMap<>(owners);
+		for (int i = 0; !pending.isEmpty(); i++) {
+
+			// group the replica keyids by their i-th candidate - a node may own more than one replica
+			Map<NodeRef, List<BigInteger>> replicasByOwner = new LinkedHashMap<>();
+			for (Map.Entry<BigInteger, List<NodeRef>> owner : pending.entrySet()) {
+				if (i < owner.getValue().size())
+					replicasByOwner.computeIfAbsent(owner.getValue().get(i), ref -> new ArrayList<>()).add(owner.getKey());
+			}
+			if (replicasByOwner.isEmpty())
+				break;										// no backups left for the rest
+
+			Map<BigInteger, List<NodeRef>> failed = new LinkedHashMap<>();
+			for (Map.Entry<NodeRef, List<BigInteger>> owner : replicasByOwner.entrySet()) {
+				// if we find the successor node of fileID, we can retrieve the messages of its replicas with one getFilesMetadata(ids) call
+				Map<BigInteger, Message> metadata = getFilesMetadata(owner.getKey(), owner.getValue());
+				if (metadata == null) {
+					for (BigInteger fileID : owner.getValue())
+						failed.put(fileID, pending.get(fileID));
+					continue;
+				}
+				for (Message message : metadata.values()) {
 
-				// save the message in a list but eliminate duplicated entries. e.g a node may be repeated because it maps more than one replicas to its id. (use checkDuplicateActiveNode)
-				if (message != null && !checkDuplicateActiveNode(messages, message))
-					messages.add(message);
+					// save the message in a list but eliminate duplicated entries. e.g a node may be repeated because it maps more than one replicas to its id. (use checkDuplicateActiveNode)
+					if (!checkDuplicateActiveNode(messages, message))
+						messages.add(message);
+				}
 			}
+			pending = failed;
 		}
 		return messages;    // return value is a Set of type Message
 	}
 	
+	// the metadata of the replicas held by a node, or null if the node can't be reached
+	private Map<BigInteger, Message> getFilesMetadata(NodeRef ref, List<BigInteger> fileIDs) {
+		ChordNodeInterface node = Util.lookupNode(ref.getNodeID(), ref.getNodeIP());	// id and address by value - stub resolved from the cache
+		if (node == null)
+			return null;
+		try {
+			return node.getFilesMetadata(fileIDs);
+		} catch (RemoteException e) {
+			Util.invalidateNode(ref.getNodeID());
+			return null;
+		}
+	}
+	
 	private boolean checkDuplicateActiveNode(Set<Message> activenodesdata, Message nodetocheck) {
 		
 		for(Message nodedata : activenodesdata) {
@@ -119,90 +175,161 @@ public class FileManager extends Thread {
 		return false;
 	}
 	
+	// keep the leases granted to the request alive while it operates: renewed every half lease period until the
+	// returned task is cancelled, however long the operation takes
+	private ScheduledFuture<?> renewLeases(ChordNodeInterface node, Message message, Set<Message> replicas) {
+		return Async.repeat(() -> {
+			try {
+				node.multicastRenewLeases(message, replicas);
+			} catch (RemoteException e) {
+				// the next round tries again
+			}
+		}, Node.LEASE_PERIOD/2);
+	}
+	
+	/**
+	 * Set the read and write quorums of filename on every active node holding a replica, so that whichever of them
+	 * coordinates a request uses the same quorums. R + W > N and 2W > N with N = nfiles replicas
+	 * @param filename
+	 * @param readquorum
+	 * @param writequorum
+	 * @throws RemoteException
+	 */
+	public void setQuorum(String filename, int readquorum, int writequorum) throws RemoteException {
+		
+		Quorum quorum = new Quorum(nfiles, readquorum, writequorum);		// IllegalArgumentException if the quorums do not intersect
+		
+		for(Message message : requestActiveNodesForFile(filename)) {
+			ChordNodeInterface node = Util.lookupNode(message.getNodeID(), message.getNodeIP());
+			if(node != null)
+				node.setQuorum(message.getFilename(), quorum);		// keyed by the replica id the node coordinates with
+		}
+	}
+	
 	public boolean requestToReadFileFromAnyActiveNode(String filename) throws RemoteException, NotBoundException {
+		return requestToReadFileFromAnyActiveNode(filename, () -> false);
+	}
+	
+	/**
+	 * Read filename without blocking the caller: request, read and release run on a shared pool
+	 * @param filename
+	 * @param timeout in ms, 0 for none - see Async.run
+	 * @return completes with the decision of the voters
+	 */
+	public CompletableFuture<Boolean> requestToReadFileFromAnyActiveNodeAsync(String filename, long timeout) {
+		return Async.run(abandoned -> requestToReadFileFromAnyActiveNode(filename, abandoned), timeout);
+	}
+	
+	// abandoned is asked once the voters have decided - a granted request that nobody waits for is aborted
+	private boolean requestToReadFileFromAnyActiveNode(String filename, BooleanSupplier abandoned) throws RemoteException, NotBoundException {
 		
 		// get all the activenodes that have the file (replicas) i.e.
-				// requestActiveNodesForFile(String filename)
-				Set<Message> activeNodeMessages = requestActiveNodesForFile(filename);
-				List<Message> activeNodes = new ArrayList<Message>(activeNodeMessages);
+		// requestActiveNodesForFile(String filename)
+		Set<Message> activeNodeMessages = requestActiveNodesForFile(filename);
+		List<Message> activeNodes = new ArrayList<Message>(activeNodeMessages);
 
-				// choose any available node
-				Message nodeMessage = activeNodes.get(0);
+		// choose the node with the lowest replica id - every request for this file then uses the same
+		// replica id (Message.getFilename) as lock key on the voters
+		Message nodeMessage = Collections.min(activeNodes, Comparator.comparing(Message::getFilename));
 
-				// locate the registry and see if the node is still active by retrieving its
-				// remote object
-				Registry reg = LocateRegistry.getRegistry(StaticTracker.PORT);
-				ChordNodeInterface node = (ChordNodeInterface) reg.lookup(nodeMessage.getNodeID().toString());
+		// locate the registry and see if the node is still active by retrieving its
+		// remote object
+		ChordNodeInterface node = Util.lookupNode(nodeMessage.getNodeID(), nodeMessage.getNodeIP());
+		if (node == null)
+			throw new NotBoundException(nodeMessage.getNodeID().toString());
 
-				// build the operation to be performed - Read and request for votes in existing
-				// active node message
-				Boolean request = node.requestReadOperation(nodeMessage);
+		// build the operation to be performed - Read and request for votes in existing
+		// active node message
+		// a request ID of our own - the commit or abort then releases exactly the grants of this request
+		// the voters go with the request - concurrent requests through the same node may be for other files
+		nodeMessage.setRequestID(ThreadLocalRandom.current().nextLong());
+		Boolean request = node.requestReadOperation(nodeMessage, activeNodeMessages);
 
-				// set the active nodes holding replica files in the contact node
-				// (setActiveNodesForFile)
-				node.setActiveNodesForFile(activeNodeMessages);
+		// set the NodeIP in the message (replace ip with )
+		nodeMessage.setNodeIP(node.getNodeIP());
+		nodeMessage.setOptype(OperationType.READ);
 
-				// set the NodeIP in the message (replace ip with )
-				nodeMessage.setNodeIP(node.getNodeIP());
-				nodeMessage.setOptype(OperationType.READ);
+		// send a request to a node and get the voters decision
+		// put the decision back in the message - it goes to the voters with the release, or alone to abort
+		request = request && !abandoned.getAsBoolean();
+		nodeMessage.setAcknowledged(request);
 
-				// send a request to a node and get the voters decision
-				// put the decision back in the message
+		// if majority votes
+		if (request) {
+			// the votes are leases - renew them until the commit
+			ScheduledFuture<?> renewal = renewLeases(node, nodeMessage, activeNodeMessages);
+			try {
+				// acquire a shared read lock to CS for this request and also increments localclock - refused if
+				// the lease of the coordinator ran out and a writer took the lock: the request is aborted then
+				request = node.acquireReadLock(nodeMessage.getFilename(), nodeMessage.getHolder());
 				nodeMessage.setAcknowledged(request);
 
-				// multicast voters' decision to the rest of the nodes
-				node.multicastVotersDecision(nodeMessage);
-
-				// if majority votes
+				// perform operation by calling Operations class
 				if (request) {
-					// acquire lock to CS and also increments localclock
-					node.acquireLock();
-
-					// perform operation by calling Operations class
 					Operations op = new Operations(node, nodeMessage, activeNodeMessages);
 					op.performOperation();
+				}
 
-					// optional: retrieve content of file on local resource
-
-					// send message to let replicas release read lock they are holding
-					node.multicastUpdateOrReadReleaseLockOperation(nodeMessage);
+				// optional: retrieve content of file on local resource
 
-					try {
-						sleep(3000);
-					} catch (InterruptedException ex) {
-						ex.printStackTrace();
-					}
+				// commit: let replicas release read lock they are holding - returns once they have
+				node.multicastCommit(nodeMessage, activeNodeMessages);
+			} finally {
+				renewal.cancel(false);
+			}
 
-					// release locks after operations
-					node.releaseLocks();
-				}
+			// release our read lock after operations - other readers keep theirs
+			node.releaseLocks(nodeMessage.getFilename(), nodeMessage.getHolder());
+		} else {
+			// abort: the voters that granted release their lock, and the coordinator drops the request
+			node.multicastCommit(nodeMessage, activeNodeMessages);
+			node.releaseLocks(nodeMessage.getFilename(), nodeMessage.getHolder());
+		}
 
-				return request;		// change to your final answer
+		return request;		// change to your final answer
 	}
 	
 	public boolean requestWriteToFileFromAnyActiveNode(String filename, String newcontent) throws RemoteException, NotBoundException {
+		return requestWriteToFileFromAnyActiveNode(filename, newcontent, () -> false);
+	}
+	
+	/**
+	 * Write newcontent to filename without blocking the caller: request, write, commit and release run on a shared
+	 * pool. Cancelled or timed out before the voters have decided, the request is aborted and its grants released.
+	 * A write that has started runs to the end on the replicas - it cannot be taken back halfway
+	 * @param filename
+	 * @param newcontent
+	 * @param timeout in ms, 0 for none - see Async.run
+	 * @return completes with the decision of the voters
+	 */
+	public CompletableFuture<Boolean> requestWriteToFileFromAnyActiveNodeAsync(String filename, String newcontent, long timeout) {
+		return Async.run(abandoned -> requestWriteToFileFromAnyActiveNode(filename, newcontent, abandoned), timeout);
+	}
+	
+	// abandoned is asked once the voters have decided - a granted request that nobody waits for is aborted
+	private boolean requestWriteToFileFromAnyActiveNode(String filename, String newcontent, BooleanSupplier abandoned) throws RemoteException, NotBoundException {
 		
-
 		// get all the activenodes that have the file (replicas) i.e.
 		// requestActiveNodesForFile(String filename)
 		Set<Message> activeNodeMessages = requestActiveNodesForFile(filename);
 		List<Message> activeNodes = new ArrayList<Message>(activeNodeMessages);
 
-		// choose any available node
-		Message nodeMessage = activeNodes.get(0);
+		// choose the node with the lowest replica id - every request for this file then uses the same
+		// replica id (Message.getFilename) as lock key on the voters
+		Message nodeMessage = Collections.min(activeNodes, Comparator.comparing(Message::getFilename));
 
 		// locate the registry and see if the node is still active by retrieving its
 		// remote object
-		Registry reg = LocateRegistry.getRegistry(StaticTracker.PORT);
-		ChordNodeInterface node = (ChordNodeInterface) reg.lookup(nodeMessage.getNodeID().toString());
+		ChordNodeInterface node = Util.lookupNode(nodeMessage.getNodeID(), nodeMessage.getNodeIP());
+		if (node == null)
+			throw new NotBoundException(nodeMessage.getNodeID().toString());
 
 		// build the operation to be performed - Read and request for votes in existing
 		// active node message
-		Boolean request = node.requestWriteOperation(nodeMessage);
-
-		// set the active nodes holding replica files in the contact node
-		// (setActiveNodesForFile)
-		node.setActiveNodesForFile(activeNodeMessages);
+		// a request ID of our own - the commit or abort then releases exactly the grants of this request
+		// the voters go with the request - concurrent requests through the same node may be for other files
+		nodeMessage.setRequestID(ThreadLocalRandom.current().nextLong());
+		Boolean request = node.requestWriteOperation(nodeMessage, activeNodeMessages);
 
 		// set the NodeIP in the message (replace ip with )
 		nodeMessage.setNodeIP(node.getNodeIP());
@@ -210,37 +337,41 @@ public class FileManager extends Thread {
 		nodeMessage.setOptype(OperationType.WRITE);
 
 		// send a request to a node and get the voters decision
-		// put the decision back in the message
+		// put the decision back in the message - it goes to the voters with the update, or alone to abort
+		request = request && !abandoned.getAsBoolean();
 		nodeMessage.setAcknowledged(request);
 
-		// multicast voters' decision to the rest of the nodes
-		node.multicastVotersDecision(nodeMessage);
-
 		// if majority votes
 		if (request) {
-			node.acquireLock();
-			Operations op = new Operations(node, nodeMessage, activeNodeMessages);
-			op.performOperation();
+			// the votes are leases - renew them until the commit
+			ScheduledFuture<?> renewal = renewLeases(node, nodeMessage, activeNodeMessages);
+			try {
+				// acquire lock to CS for this request and also increments localclock - refused if the lease of the
+				// coordinator ran out and someone else took the lock: the request is aborted then
+				request = node.acquireLock(nodeMessage.getFilename(), nodeMessage.getHolder());
+				nodeMessage.setAcknowledged(request);
 
-			node.multicastUpdateOrReadReleaseLockOperation(nodeMessage);
+				// perform operation by calling Operations class
+				if (request) {
+					Operations op = new Operations(node, nodeMessage, activeNodeMessages);
+					op.performOperation();
+				}
 
-			try {
-				sleep(2000);
-			} catch (InterruptedException ex) {
-				ex.printStackTrace();
+				// commit: decision, new content and release in one message - replicas apply the update and release
+				// the CS lock they are holding. Returns once they have
+				node.multicastCommit(nodeMessage, activeNodeMessages);
+			} finally {
+				renewal.cancel(false);
 			}
 
-			node.releaseLocks();
+			// release the lock of this request after operations
+			node.releaseLocks(nodeMessage.getFilename(), nodeMessage.getHolder());
+		} else {
+			// abort: the voters that granted release their lock, and the coordinator drops the request
+			node.multicastCommit(nodeMessage, activeNodeMessages);
+			node.releaseLocks(nodeMessage.getFilename(), nodeMessage.getHolder());
 		}
 
-		// acquire lock to CS and also increments localclock
-
-		// perform operation by calling Operations class
-
-		// update replicas and let replicas release CS lock they are holding
-
-		// release locks after operations
-
 		return request; // change to your final answer
 
 	}
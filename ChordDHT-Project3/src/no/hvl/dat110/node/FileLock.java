@@ -0,0 +1,438 @@
+package no.hvl.dat110.node;
+
+/**
+ * Lock state of one file on a node: shared by readers, held by one writer, wanted by this node for its own request,
+ * or free. Every grant is a lease - it is dropped once its deadline has passed unless the holder renews it.
+ * Requests that cannot be granted wait in a queue ordered by (Lamport clock, node id) and are granted in that
+ * order when the lock frees. The state is immutable and replaced with compareAndSet, so concurrent votes never
+ * block each other: a vote that loses the race re-reads the state and decides again
+ * @author tdoy
+ */
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+public class FileLock {
+
+	public enum Vote {
+		GRANTED,				// the lock is held for the request
+		QUEUED,					// the request waits - it is granted later, or dropped by release(holder)
+		DENIED
+	}
+
+	// the order requests are granted in: lower Lamport clock first, ties broken by node id
+	public static final Comparator<Message> PRIORITY = Comparator.comparingLong(Message::getClock).thenComparing(Message::getNodeID);
+
+	// the grants of one holder and the deadline of the lease that covers them
+	private static final class Lease {
+		final int grants;
+		final long deadline;
+		final Message request;				// null for a lock taken by this node itself
+
+		Lease(int grants, long deadline, Message request) {
+			this.grants = grants;
+			this.deadline = deadline;
+			this.request = request;
+		}
+	}
+
+	private static final class State {
+		final Map<BigInteger, Lease> readers;	// read grants by holder - a node may hold several. Never modified
+		final BigInteger writer;				// holder of the exclusive lock
+		final long writerdeadline;
+		final Message writerrequest;
+		final boolean wanted;					// this node has asked for the lock and waits for the votes
+		final long wanteddeadline;				// a request that never completes must not keep denying the others
+		final OperationType wantedtype;			// the operation this node waits for
+		final long wantedclock;					// Lamport timestamp of our own pending request
+		final long clock;						// Lamport timestamp of the holder's request
+		final List<Message> queue;				// waiting requests in PRIORITY order. Never modified
+
+		State(Map<BigInteger, Lease> readers, BigInteger writer, long writerdeadline, Message writerrequest,
+				boolean wanted, long wanteddeadline, OperationType wantedtype, long wantedclock, long clock, List<Message> queue) {
+			this.readers = readers;
+			this.writer = writer;
+			this.writerdeadline = writerdeadline;
+			this.writerrequest = writerrequest;
+			this.wanted = wanted;
+			this.wanteddeadline = wanteddeadline;
+			this.wantedtype = wantedtype;
+			this.wantedclock = wantedclock;
+			this.clock = clock;
+			this.queue = queue;
+		}
+
+		State withReaders(Map<BigInteger, Lease> readers) {
+			return new State(Collections.unmodifiableMap(readers), writer, writerdeadline, writerrequest, wanted,
+					wanteddeadline, wantedtype, wantedclock, clock, queue);
+		}
+
+		State withWriter(BigInteger writer, long writerdeadline, Message writerrequest) {
+			return new State(readers, writer, writerdeadline, writerrequest, wanted, wanteddeadline, wantedtype,
+					wantedclock, clock, queue);
+		}
+
+		State withWanted(boolean wanted, long wanteddeadline, OperationType wantedtype, long wantedclock) {
+			return new State(readers, writer, writerdeadline, writerrequest, wanted, wanteddeadline, wantedtype,
+					wantedclock, clock, queue);
+		}
+
+		State withClock(long clock) {
+			return new State(readers, writer, writerdeadline, writerrequest, wanted, wanteddeadline, wantedtype,
+					wantedclock, clock, queue);
+		}
+
+		State withQueue(List<Message> queue) {
+			return new State(readers, writer, writerdeadline, writerrequest, wanted, wanteddeadline, wantedtype,
+					wantedclock, clock, Collections.unmodifiableList(queue));
+		}
+
+		State free() {
+			return new State(Collections.<BigInteger, Lease>emptyMap(), null, 0, null, false, 0, null, 0, clock, queue);
+		}
+
+		boolean isBusy() {
+			return writer != null || !readers.isEmpty();
+		}
+	}
+
+	private static final State FREE = new State(Collections.<BigInteger, Lease>emptyMap(), null, 0, null, false, 0,
+			null, 0, 0, Collections.<Message>emptyList());
+
+	private final long leaseperiod;			// ms a grant is held without renewal
+	private final AtomicReference<State> state = new AtomicReference<State>(FREE);
+
+	public FileLock(long leaseperiod) {
+		this.leaseperiod = leaseperiod;
+	}
+
+	/**
+	 * Vote on a request for this file. Readers share the lock, a writer excludes everyone. A request that conflicts
+	 * with a grant, with an older request of our own, or with an older waiting request is queued instead of denied
+	 * @param request with the requesting node, the holder of the grant (Message.getHolder), clock and optype
+	 * @param self id of this node - breaks ties between our own request and one with the same timestamp
+	 * @return GRANTED or QUEUED
+	 */
+	public Vote vote(Message request, BigInteger self) {
+
+		while(true) {
+			State s = state.get();
+
+			if(grantable(s, request, self)) {
+				if(state.compareAndSet(s, acquired(s, request.getHolder(), request.getClock(), request.getOptype(), request)))
+					return Vote.GRANTED;
+			} else {
+				List<Message> queue = new ArrayList<Message>(s.queue);
+				queue.add(request);
+				queue.sort(PRIORITY);
+				if(state.compareAndSet(s, s.withQueue(queue)))
+					return Vote.QUEUED;
+			}
+		}
+	}
+
+	/**
+	 * Grant the waiting requests that the lock now allows, oldest first. Stops at the first one that still
+	 * conflicts, so a writer is never overtaken by younger readers
+	 * @param self id of this node
+	 * @return the requests granted - their coordinators are waiting for the vote
+	 */
+	public List<Message> promote(BigInteger self) {
+
+		while(true) {
+			State s = state.get();
+
+			State next = s;
+			List<Message> granted = new ArrayList<Message>();
+			while(!next.queue.isEmpty()) {
+				Message head = next.queue.get(0);
+				State dequeued = next.withQueue(next.queue.subList(1, next.queue.size()));
+				if(!grantable(dequeued, head, self))
+					break;
+				next = acquired(dequeued, head.getHolder(), head.getClock(), head.getOptype(), head);
+				granted.add(head);
+			}
+
+			if(next == s || state.compareAndSet(s, next))
+				return granted;
+		}
+	}
+
+	/**
+	 * @return the requests holding the lock that conflict with request and are younger - asked to relinquish their
+	 * grant while they have not yet won their own quorum (Maekawa's INQUIRE)
+	 */
+	public List<Message> younger(Message request) {
+		State s = state.get();
+		List<Message> younger = new ArrayList<Message>();
+		if(s.writerrequest != null && PRIORITY.compare(request, s.writerrequest) < 0)
+			younger.add(s.writerrequest);
+		if(request.getOptype() != OperationType.READ) {
+			for(Lease lease : s.readers.values())
+				if(lease.request != null && PRIORITY.compare(request, lease.request) < 0)
+					younger.add(lease.request);
+		}
+		return younger;
+	}
+
+	/**
+	 * Take back the grant of holder, which has not won its quorum, and queue its request again (Maekawa's
+	 * RELINQUISH). The lock can then go to an older request - call promote()
+	 * @return false if holder holds no grant of a request here
+	 */
+	public boolean relinquish(BigInteger holder) {
+
+		while(true) {
+			State s = state.get();
+
+			Message request;
+			State next;
+			Lease lease = s.readers.get(holder);
+			if(holder.equals(s.writer) && s.writerrequest != null) {
+				request = s.writerrequest;
+				next = s.withWriter(null, 0, null);
+			} else if(lease != null && lease.request != null) {
+				request = lease.request;
+				next = s.withReaders(withoutGrant(s.readers, holder, lease));
+			} else {
+				return false;
+			}
+
+			List<Message> queue = new ArrayList<Message>(next.queue);
+			queue.add(request);
+			queue.sort(PRIORITY);
+			if(state.compareAndSet(s, next.withQueue(queue)))
+				return true;
+		}
+	}
+
+	private static boolean grantable(State s, Message request, BigInteger self) {
+
+		boolean read = request.getOptype() == OperationType.READ;
+
+		// the file is being written, or read and a writer asks
+		if(s.writer != null || (!read && !s.readers.isEmpty()))
+			return false;
+
+		// we want the file ourselves and one of the two requests writes: the lower (timestamp, node id) goes first
+		if(s.wanted && conflicts(request.getOptype(), s.wantedtype)
+				&& !precedes(request.getClock(), request.getNodeID(), s.wantedclock, self))
+			return false;
+
+		// an older waiting request that conflicts goes first
+		for(Message waiting : s.queue) {
+			if(PRIORITY.compare(waiting, request) >= 0)
+				break;
+			if(conflicts(waiting.getOptype(), request.getOptype()))
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean conflicts(OperationType a, OperationType b) {
+		return a != OperationType.READ || b != OperationType.READ;
+	}
+
+	private static boolean precedes(long clock1, BigInteger id1, long clock2, BigInteger id2) {
+		return clock1 < clock2 || (clock1 == clock2 && id1.compareTo(id2) <= 0);
+	}
+
+	public void want(long clock) {
+		want(clock, OperationType.WRITE);
+	}
+
+	public void want(long clock, OperationType optype) {
+		long deadline = System.currentTimeMillis() + leaseperiod;
+		update(s -> s.withWanted(true, deadline, optype, clock));
+	}
+
+	public boolean acquire(BigInteger holder, long clock) {
+		return acquire(holder, clock, OperationType.WRITE);
+	}
+
+	/**
+	 * Take the lock for holder, whose request has won the vote
+	 * @return false if someone else holds it - a writer, or for a write also a reader. The lock is left as it is
+	 */
+	public boolean acquire(BigInteger holder, long clock, OperationType optype) {
+		while(true) {
+			State s = state.get();
+			if(!isFreeFor(s, holder, optype))
+				return false;
+			if(state.compareAndSet(s, acquired(s, holder, clock, optype, null)))
+				return true;
+		}
+	}
+
+	// no other writer, and for a write no other reader - the grants of holder itself do not count
+	private static boolean isFreeFor(State s, BigInteger holder, OperationType optype) {
+		if(s.writer != null && !s.writer.equals(holder))
+			return false;
+		if(optype == OperationType.READ)
+			return true;
+		for(BigInteger reader : s.readers.keySet()) {
+			if(!reader.equals(holder))
+				return false;
+		}
+		return true;
+	}
+
+	private State acquired(State s, BigInteger holder, long clock, OperationType optype, Message request) {
+		long deadline = System.currentTimeMillis() + leaseperiod;
+		if(optype == OperationType.READ) {
+			Map<BigInteger, Lease> readers = new HashMap<BigInteger, Lease>(s.readers);
+			Lease lease = readers.get(holder);
+			readers.put(holder, new Lease(lease == null ? 1 : lease.grants + 1, deadline, request));
+			return s.withReaders(readers).withClock(clock);
+		}
+		return s.withWriter(holder, deadline, request).withClock(clock);
+	}
+
+	private static Map<BigInteger, Lease> withoutGrant(Map<BigInteger, Lease> readers, BigInteger holder, Lease lease) {
+		Map<BigInteger, Lease> next = new HashMap<BigInteger, Lease>(readers);
+		if(lease.grants > 1)
+			next.put(holder, new Lease(lease.grants - 1, lease.deadline, lease.request));
+		else
+			next.remove(holder);
+		return next;
+	}
+
+	/**
+	 * Extend the leases held for holder by one lease period. A lease past its deadline is not renewed, even if it
+	 * has not been dropped yet
+	 * @return false if holder holds nothing here any more - its lease has expired or was never granted
+	 */
+	public boolean renew(BigInteger holder) {
+		while(true) {
+			State s = state.get();
+			long now = System.currentTimeMillis();
+
+			State next = s;
+			if(holder.equals(s.writer) && s.writerdeadline >= now)
+				next = next.withWriter(s.writer, now + leaseperiod, s.writerrequest);
+			Lease lease = s.readers.get(holder);
+			if(lease != null && lease.deadline >= now) {
+				Map<BigInteger, Lease> readers = new HashMap<BigInteger, Lease>(s.readers);
+				readers.put(holder, new Lease(lease.grants, now + leaseperiod, lease.request));
+				next = next.withReaders(readers);
+			}
+
+			if(next == s)
+				return false;
+			if(state.compareAndSet(s, next))
+				return true;
+		}
+	}
+
+	/**
+	 * Drop the grants whose lease has run out
+	 * @param now
+	 * @return the number of grants dropped
+	 */
+	public int expire(long now) {
+		while(true) {
+			State s = state.get();
+
+			int expired = 0;
+			State next = s;
+			if(s.writer != null && s.writerdeadline < now) {
+				next = next.withWriter(null, 0, null);
+				expired++;
+			}
+			Map<BigInteger, Lease> readers = null;
+			for(Map.Entry<BigInteger, Lease> lease : s.readers.entrySet()) {
+				if(lease.getValue().deadline < now) {
+					if(readers == null)
+						readers = new HashMap<BigInteger, Lease>(s.readers);
+					readers.remove(lease.getKey());
+					expired += lease.getValue().grants;
+				}
+			}
+			if(readers != null)
+				next = next.withReaders(readers);
+			if(s.wanted && s.wanteddeadline < now)
+				next = next.withWanted(false, 0, null, 0);
+
+			if(next == s || state.compareAndSet(s, next))
+				return expired;
+		}
+	}
+
+	/**
+	 * Release every grant and our own pending request. Waiting requests stay queued - call promote()
+	 */
+	public void release() {
+		update(State::free);
+	}
+
+	/**
+	 * Give back one grant held for holder, or drop its request from the queue - a late release must not free a lock
+	 * granted to someone else since, and the release of one reader must not free the others
+	 */
+	public void release(BigInteger holder) {
+		update(s -> {
+			State next = s;
+			Lease lease = s.readers.get(holder);
+			if(holder.equals(s.writer)) {
+				next = s.withWriter(null, 0, null);
+			} else if(lease != null) {
+				next = s.withReaders(withoutGrant(s.readers, holder, lease));
+			} else {
+				List<Message> queue = new ArrayList<Message>(s.queue);
+				if(queue.removeIf(waiting -> holder.equals(waiting.getHolder())))
+					next = s.withQueue(queue);
+			}
+			if(!next.isBusy() && next.wanted)
+				next = next.withWanted(false, 0, null, 0);
+			return next;
+		});
+	}
+
+	// replace the state with f(state), retrying until no other thread has changed it in between
+	private void update(UnaryOperator<State> f) {
+		while(true) {
+			State s = state.get();
+			State next = f.apply(s);
+			if(next == s || state.compareAndSet(s, next))
+				return;
+		}
+	}
+
+	public boolean isBusy() {
+		return state.get().isBusy();
+	}
+
+	public boolean isWriteLocked() {
+		return state.get().writer != null;
+	}
+
+	public boolean hasWaiting() {
+		return !state.get().queue.isEmpty();
+	}
+
+	public int getReaders() {
+		int n = 0;
+		for(Lease lease : state.get().readers.values())
+			n += lease.grants;
+		return n;
+	}
+
+	/**
+	 * @return the writer holding the lock, or null
+	 */
+	public BigInteger getHolder() {
+		return state.get().writer;
+	}
+
+	public long getClock() {
+		return state.get().clock;
+	}
+
+}
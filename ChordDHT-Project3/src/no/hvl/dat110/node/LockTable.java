@@ -0,0 +1,119 @@
+package no.hvl.dat110.node;
+
+/**
+ * The locks of the files stored on a node, by file ID. A lock held on one file does not block the votes for another.
+ * Grants are leases: a lock whose holder crashed is freed after one lease period. Requests that conflict wait in the
+ * queue of the file lock until it frees
+ * @author tdoy
+ */
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LockTable {
+
+	public static final BigInteger ALL_FILES = BigInteger.ONE.negate();		// the node-wide lock - file ids are never negative
+
+	private final ConcurrentMap<BigInteger, FileLock> locks = new ConcurrentHashMap<BigInteger, FileLock>();
+	private final BigInteger self;
+	private final long leaseperiod;
+	private final AtomicLong expired = new AtomicLong();		// grants dropped because their lease ran out
+
+	public LockTable(BigInteger self, long leaseperiod) {
+		this.self = self;
+		this.leaseperiod = leaseperiod;
+	}
+
+	/**
+	 * @return the lock of the file, created free on first use
+	 */
+	public FileLock get(BigInteger fileID) {
+		return locks.computeIfAbsent(fileID, id -> new FileLock(leaseperiod));
+	}
+
+	/**
+	 * Vote on a read or write request for the file of the message - denied while the node-wide lock is held, queued
+	 * while the file lock conflicts. Leases that ran out since the last sweep are dropped first, so a lost lock never
+	 * keeps a request waiting
+	 */
+	public FileLock.Vote vote(Message request) {
+		long now = System.currentTimeMillis();
+		FileLock all = get(ALL_FILES);
+		FileLock lock = get(request.getFilename());
+		expired.addAndGet(all.expire(now) + lock.expire(now));
+
+		if(all.isBusy())
+			return FileLock.Vote.DENIED;
+		return lock.vote(request, self);
+	}
+
+	/**
+	 * Grant the waiting requests for fileID that its lock now allows
+	 * @return the requests granted
+	 */
+	public List<Message> promote(BigInteger fileID) {
+		if(get(ALL_FILES).isBusy())
+			return Collections.emptyList();
+		return get(fileID).promote(self);
+	}
+
+	/**
+	 * @return the files that have requests waiting for their lock
+	 */
+	public List<BigInteger> waiting() {
+		List<BigInteger> files = new ArrayList<BigInteger>();
+		for(Map.Entry<BigInteger, FileLock> lock : locks.entrySet())
+			if(lock.getValue().hasWaiting())
+				files.add(lock.getKey());
+		return files;
+	}
+
+	/**
+	 * Renew the leases of holder on fileID and on the node-wide lock
+	 * @return false if holder no longer holds any of them
+	 */
+	public boolean renew(BigInteger fileID, BigInteger holder) {
+		boolean held = get(fileID).renew(holder);
+		return get(ALL_FILES).renew(holder) || held;
+	}
+
+	/**
+	 * Drop the grants whose lease has run out, on every file
+	 * @return the number of grants dropped by this sweep
+	 */
+	public int expire() {
+		long now = System.currentTimeMillis();
+		int n = 0;
+		for(FileLock lock : locks.values())
+			n += lock.expire(now);
+		expired.addAndGet(n);
+		return n;
+	}
+
+	/**
+	 * @return the number of grants dropped because their lease ran out, since the node started
+	 */
+	public long getExpired() {
+		return expired.get();
+	}
+
+	public long getLeasePeriod() {
+		return leaseperiod;
+	}
+
+	public void releaseAll() {
+		for(FileLock lock : locks.values())
+			lock.release();
+	}
+
+	public boolean isBusy(BigInteger fileID) {
+		return get(ALL_FILES).isBusy() || get(fileID).isBusy();
+	}
+
+}
@@ -0,0 +1,52 @@
+package no.hvl.dat110.node;
+
+/**
+ * One step of an iterative lookup: either the owner of the key or the next node the caller should contact
+ * @author tdoy
+ */
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class LookupStep implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	private NodeRef node;
+	private boolean owner;			// true if node is the successor of the key, false if node is the next hop
+	private List<NodeRef> backups;	// nodes to fall back to, in order, if node can't be reached
+
+	public LookupStep(NodeRef node, boolean owner) {
+		this(node, owner, Collections.<NodeRef>emptyList());
+	}
+
+	public LookupStep(NodeRef node, boolean owner, List<NodeRef> backups) {
+		this.node = node;
+		this.owner = owner;
+		this.backups = new ArrayList<NodeRef>(backups);
+	}
+
+	public NodeRef getNode() {
+		return node;
+	}
+
+	public boolean isOwner() {
+		return owner;
+	}
+
+	public List<NodeRef> getBackups() {
+		return backups;
+	}
+
+	/**
+	 * @return the node followed by its backups
+	 */
+	public List<NodeRef> getCandidates() {
+		List<NodeRef> candidates = new ArrayList<NodeRef>();
+		candidates.add(node);
+		candidates.addAll(backups);
+		return candidates;
+	}
+
+}
@@ -8,26 +8,28 @@ public class Message implements Serializable {
 	
 
 	private static final long serialVersionUID = 1L;
-	private int clock;
+	private long clock;
 	private BigInteger nodeID;
 	private String nodeIP;
 	private OperationType optype;
 	private boolean acknowledged = false;
+	private boolean deferred = false;			// the voter queued the request and will send its vote later
 	private String filepath;
 	
 	private BigInteger filename;
 	private String newcontent;
 	private int version;
+	private long requestID;						// the lock request this message belongs to - set by the client or the coordinator
 	
 	public Message() throws RemoteException {
 		super();
 	}
 
-	public int getClock() {
+	public long getClock() {
 		return clock;
 	}
 	
-	public void setClock(int clock) {
+	public void setClock(long clock) {
 		this.clock = clock;
 	}
 
@@ -55,6 +57,14 @@ public class Message implements Serializable {
 		this.acknowledged = acknowledged;
 	}
 
+	public boolean isDeferred() {
+		return deferred;
+	}
+
+	public void setDeferred(boolean deferred) {
+		this.deferred = deferred;
+	}
+
 	public String getNodeIP() {
 		return nodeIP;
 	}
@@ -94,5 +104,21 @@ public class Message implements Serializable {
 	public void setFilepath(String filepath) {
 		this.filepath = filepath;
 	}
+
+	public long getRequestID() {
+		return requestID;
+	}
+
+	public void setRequestID(long requestID) {
+		this.requestID = requestID;
+	}
+	
+	/**
+	 * @return the id the voters hold the grants of this request under: the coordinator and the request ID, so that
+	 * two requests of the same coordinator never release each other's grants
+	 */
+	public BigInteger getHolder() {
+		return nodeID.shiftLeft(64).or(BigInteger.valueOf(requestID & Long.MAX_VALUE));
+	}
 	
 }
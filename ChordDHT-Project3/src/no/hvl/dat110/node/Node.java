@@ -7,8 +7,12 @@ package no.hvl.dat110.node;
  * @author tdoy
  */
 
+import no.hvl.dat110.chordoperations.IterativeLookup;
+import no.hvl.dat110.chordoperations.LookupResult;
+import no.hvl.dat110.rpc.StaticTracker;
 import no.hvl.dat110.rpc.interfaces.ChordNodeInterface;
 import no.hvl.dat110.util.Hash;
+import no.hvl.dat110.util.RingId;
 import no.hvl.dat110.util.Util;
 
 import java.io.File;
@@ -17,11 +21,17 @@ import java.math.BigInteger;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.rmi.AccessException;
-import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
-import java.rmi.registry.Registry;
+import java.rmi.ServerException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 //import java.net.InetAddress;
 
@@ -31,43 +41,61 @@ public class Node extends UnicastRemoteObject implements ChordNodeInterface {
      *
      */
     private static final long serialVersionUID = 1L;
+    public static final long VOTE_TIMEOUT = 2000;          // ms to wait for the voters before the missing votes count against
+    public static final long LEASE_PERIOD = 10000;         // ms a granted vote is held before it expires, unless the coordinator renews it
+    public static final long ACQUIRE_RETRY = 10;           // ms between attempts to take a lock held by someone else
+
+    private static final ExecutorService voteexecutor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "vote-request");
+        t.setDaemon(true);
+        return t;
+    });
+
     private BigInteger nodeID;        // BigInteger value of hash of IP address of the Node
+    private RingId ringID;            // the same identifier for ring arithmetic
     private String nodeIP;            // IP address of node
     private ChordNodeInterface successor;
+    private NodeRef successorRef;                    // id and address of the successor kept locally
+    private volatile List<NodeRef> successorList = Collections.emptyList();    // successorRef followed by its successors, never modified in place
     private ChordNodeInterface predecessor;
+    private NodeRef predecessorRef;                  // id and address of the predecessor kept locally
+    private NodeRef selfRef;
     private List<ChordNodeInterface> fingerTable;
-    private Set<BigInteger> fileKey;
-    private Map<BigInteger, Message> filesMetadata;
+    private RoutingTable routingTable;               // finger ids and addresses kept locally for routing decisions
+    private Runnable churnListener;                  // told when the successor or predecessor changes or fails
+    private NavigableSet<BigInteger> fileKey;                   // sorted so that it can be listed page by page
+    private ConcurrentNavigableMap<BigInteger, Message> filesMetadata;
 
     // variables for mutex and quorum-based protocols
-    private List<Message> queue;                            // queue for this process
-    private List<Message> queueACK;                        // queue for acknowledged messages
-    private Set<Message> activenodesforfile;
+    private Map<Long, Ballot> ballots;                      // open ballots of the lock requests coordinated by this node, by request ID
+    private AtomicLong requests;                            // request ID generator
 
-    private int counter;                                    // Lamport local clock
-    private boolean CS_BUSY = false;                        // indicate to be in critical section (accessing a shared resource)
-    private boolean WANTS_TO_ENTER_CS = false;                // indicate to want to enter CS
-    private int quorum;
+    private AtomicLong clock;                               // Lamport local clock
+    private LockTable locks;                                // lock state of each file on this node - replaces the node-wide CS_BUSY/WANTS_TO_ENTER_CS
+    private Map<BigInteger, Quorum> quorums;               // read/write quorums of the files this node coordinates, by replica id
 
     public Node(String nodename) throws RemoteException, UnknownHostException {
         super();
 
         fingerTable = new ArrayList<ChordNodeInterface>();
-        fileKey = new HashSet<BigInteger>();
+        fileKey = new ConcurrentSkipListSet<BigInteger>();
         //setNodeIP(InetAddress.getLocalHost().getHostAddress());	// use the IP address of the host
         setNodeIP(nodename);                                        // use a different name as "IP" for single machine simulation
         BigInteger hashvalue = Hash.hashOf(getNodeIP());            // use the SHA-1  from Hash class
         setNodeID(hashvalue);
+        selfRef = new NodeRef(hashvalue, nodename);
+        routingTable = new RoutingTable(hashvalue, Hash.sbit);
 
         setSuccessor(null);
         setPredecessor(null);
 
-        filesMetadata = new HashMap<BigInteger, Message>();
+        filesMetadata = new ConcurrentSkipListMap<BigInteger, Message>();
 
-        counter = 0;
-        queue = new ArrayList<Message>();
-        queueACK = new ArrayList<Message>();
-        queueACK = Collections.synchronizedList(queueACK);            // make sure to synchronize list
+        clock = new AtomicLong();
+        ballots = new ConcurrentHashMap<Long, Ballot>();
+        locks = new LockTable(hashvalue, LEASE_PERIOD);
+        quorums = new ConcurrentHashMap<BigInteger, Quorum>();
+        requests = new AtomicLong();
     }
 
     public BigInteger getNodeID() {
@@ -76,6 +104,11 @@ public class Node extends UnicastRemoteObject implements ChordNodeInterface {
 
     public void setNodeID(BigInteger nodeID) {
         this.nodeID = nodeID;
+        this.ringID = RingId.of(nodeID);
+    }
+
+    public RingId getRingID() {
+        return ringID;
     }
 
     public String getNodeIP() {
@@ -86,12 +119,153 @@ public class Node extends UnicastRemoteObject implements ChordNodeInterface {
         this.nodeIP = nodeIP;
     }
 
+    public String getHashFunction() {
+        return Hash.getHashFunctionName();
+    }
+
     public ChordNodeInterface getSuccessor() {
         return successor;
     }
 
     public void setSuccessor(ChordNodeInterface successor) {
+        setSuccessor(successor, refOf(successor));
+    }
+
+    /**
+     * Set the successor from a node reference - the stub comes from the stub cache, no remote call is made
+     */
+    public void setSuccessorRef(NodeRef successorRef) {
+        setSuccessor(successorRef == null ? null : stubOf(successorRef), successorRef);
+    }
+
+    private synchronized void setSuccessor(ChordNodeInterface successor, NodeRef successorRef) {
+        NodeRef old = this.successorRef;
         this.successor = successor;
+        this.successorRef = successorRef;
+        // entries of the old list that come after the new successor stay as its backups
+        this.successorList = successorRef == null ? Collections.<NodeRef>emptyList() : successorsFrom(successorRef, successorList);
+        if (!Objects.equals(old, successorRef))
+            churn();
+    }
+
+    /**
+     * @return the successor followed by up to StaticTracker.SUCCESSORS - 1 of its successors, in ring order
+     */
+    public List<NodeRef> getSuccessorList() {
+        return successorList;
+    }
+
+    /**
+     * Rebuild the successor list from the successor list of our successor - called during stabilization
+     * @param succsuccessors the successor list reported by the successor
+     * @return true if the list changed
+     */
+    public synchronized boolean refreshSuccessors(List<NodeRef> succsuccessors) {
+        if (successorRef == null)
+            return false;
+        List<NodeRef> old = successorList;
+        successorList = successorsFrom(successorRef, succsuccessors);
+        return !old.equals(successorList);
+    }
+
+    /**
+     * Drop a successor that can't be reached. If it was the immediate successor the next live entry
+     * of the successor list takes over at once, without waiting for stabilization
+     * @param failed
+     * @return the successor after the failover, or null if the list had no other entry
+     */
+    public synchronized NodeRef successorFailed(NodeRef failed) {
+        Util.invalidateNode(failed.getNodeID());
+
+        List<NodeRef> successors = new ArrayList<NodeRef>(successorList);
+        successors.remove(failed);
+        if (!failed.equals(successorRef)) {
+            successorList = Collections.unmodifiableList(successors);
+            return successorRef;
+        }
+
+        for (NodeRef next : successors) {
+            ChordNodeInterface stub = stubOf(next);
+            if (stub != null) {
+                setSuccessor(stub, next);
+                return next;
+            }
+            Util.invalidateNode(next.getNodeID());
+        }
+
+        return null;                                             // keep the old successor - UpdateSuccessor looks up a new one
+    }
+
+    // succ followed by the entries of rest that come after it on the ring, stopping before this node
+    private List<NodeRef> successorsFrom(NodeRef succ, List<NodeRef> rest) {
+        List<NodeRef> successors = new ArrayList<NodeRef>();
+        successors.add(succ);
+        RingId last = succ.getRingID();
+        for (NodeRef ref : rest) {
+            if (successors.size() >= StaticTracker.SUCCESSORS || ref.equals(selfRef) || succ.equals(selfRef))
+                break;
+            if (ref.getRingID().inOpen(last, ringID)) {
+                successors.add(ref);
+                last = ref.getRingID();
+            }
+        }
+        return Collections.unmodifiableList(successors);
+    }
+
+    public void setChurnListener(Runnable churnListener) {
+        this.churnListener = churnListener;
+    }
+
+    private void churn() {
+        Runnable listener = churnListener;
+        if (listener != null)
+            listener.run();
+    }
+
+    public NodeRef getSuccessorRef() {
+        return successorRef;
+    }
+
+    public NodeRef getPredecessorRef() {
+        return predecessorRef;
+    }
+
+    public NodeRef getSelfRef() {
+        return selfRef;
+    }
+
+    @Override
+    public RingState getRingState(boolean withFingers) {
+        return new RingState(selfRef, predecessorRef, successorList, withFingers ? routingTable.getFingers() : null);
+    }
+
+    public RoutingTable getRoutingTable() {
+        return routingTable;
+    }
+
+    // value reference of a node - no remote call when node is this node
+    private NodeRef refOf(ChordNodeInterface node) {
+        if (node == null)
+            return null;
+        if (node == this)
+            return selfRef;
+        try {
+            return NodeRef.of(node);
+        } catch (RemoteException e) {
+            return null;
+        }
+    }
+
+    // stub of a node reference - this node is returned as is
+    public ChordNodeInterface stubOf(NodeRef ref) {
+        if (ref.getNodeID().equals(getNodeID()))
+            return this;
+        return ref.resolve();
+    }
+
+    @Override
+    public List<NodeRef> getFingerRefs() {
+        return routingTable.getFingers();
     }
 
     public ChordNodeInterface getPredecessor() {
@@ -99,7 +273,15 @@ public class Node extends UnicastRemoteObject implements ChordNodeInterface {
     }
 
     public void setPredecessor(ChordNodeInterface predecessor) {
+        setPredecessor(predecessor, refOf(predecessor));
+    }
+
+    private void setPredecessor(ChordNodeInterface predecessor, NodeRef predecessorRef) {
+        NodeRef old = this.predecessorRef;
         this.predecessor = predecessor;
+        this.predecessorRef = predecessorRef;
+        if (!Objects.equals(old, predecessorRef))
+            churn();
     }
 
     public List<ChordNodeInterface> getFingerTable() {
@@ -131,87 +313,219 @@ public class Node extends UnicastRemoteObject implements ChordNodeInterface {
     }
 
     @Override
-    public ChordNodeInterface findSuccessor(BigInteger keyid) throws RemoteException {
+    public boolean hasFileKey(BigInteger fileKey) {
+        return this.fileKey.contains(fileKey);
+    }
 
-        // ask this node to find the successor of id
-        ChordNodeInterface succ = this.getSuccessor();            // last known successor of this node
+    @Override
+    public List<BigInteger> getFileKeys(BigInteger after, int limit) {
+        // the keys after 'after' (all if null) in key order, at most limit of them
+        NavigableSet<BigInteger> tail = after == null ? fileKey : fileKey.tailSet(after, false);
+        List<BigInteger> page = new ArrayList<BigInteger>();
+        for (BigInteger key : tail) {
+            if (page.size() >= limit)
+                break;
+            page.add(key);
+        }
+        return page;
+    }
+
+    @Override
+    public ChordNodeInterface findSuccessor(BigInteger keyid) throws RemoteException {
 
-        ChordNodeInterface succstub = Util.registryHandle(succ);    // issue a remote call and see if this node is still active
+        if (StaticTracker.ITERATIVE_LOOKUP) {
+            // drive the lookup from this node - intermediate nodes only answer findNextHop
+            LookupResult result = new IterativeLookup().lookup(this, keyid);
+            if (result == null)
+                return null;
+            for (NodeRef owner : result.getSuccessors()) {
+                ChordNodeInterface ownerstub = Util.registryHandle(stubOf(owner));  // the owner, or the first of its backups that answers
+                if (ownerstub != null)
+                    return ownerstub;
+                Util.invalidateNode(owner.getNodeID());
+            }
+            return null;
+        }
 
-        if (succstub != null) {
+        // ask this node to find the successor of id
+        NodeRef succ = liveSuccessor();                          // see if the successor is still active
 
-            //System.out.println("Successor for Node: successor("+this.getNodeIP()+") = "+succstub.getNodeIP());
+        if (succ != null) {
 
-            BigInteger succID = succstub.getNodeID();
-            BigInteger nodeID = this.getNodeID();
+            ChordNodeInterface succstub = stubOf(succ);
+            RingId key = RingId.of(keyid);                       // converted once for all the comparisons below
 
-            // check that keyid is a member of the set {nodeid+1,...,succID}
-            Boolean cond = Util.computeLogic(keyid, nodeID.add(new BigInteger("1")), succID);
+            // check that keyid is a member of the set {nodeid+1,...,succID} - the id of the successor is known locally
+            boolean cond = key.inOpenClosed(ringID, succ.getRingID());
 
             if (cond) {
                 return succstub;
             } else {
                 // search the local finger table of this node for the highest predecessor of id
-                ChordNodeInterface highest_pred = findHighestPredecessor(keyid);
-                return highest_pred.findSuccessor(keyid);                            // a remote call
+                return forwardToHighestPredecessor(keyid, key, succstub);
             }
         }
 
         return null;
     }
 
-    private ChordNodeInterface findHighestPredecessor(BigInteger ID) throws RemoteException {
+    // ask the finger that most closely precedes keyid - a finger that does not answer is dropped and the next closer
+    // one is asked. A cached stub says nothing about the node being alive: only the call tells
+    private ChordNodeInterface forwardToHighestPredecessor(BigInteger keyid, RingId key, ChordNodeInterface succstub)
+            throws RemoteException {
+
+        NodeRef finger = routingTable.closestPrecedingNode(key);     // found locally
+
+        while (finger != null) {
+            ChordNodeInterface highest_pred = finger.resolve();
+            if (highest_pred != null) {
+                try {
+                    return highest_pred.findSuccessor(keyid);                        // a remote call
+                } catch (ServerException e) {
+                    throw e;                                                         // the finger answered - a later hop failed
+                } catch (RemoteException e) {
+                    // unreachable
+                }
+            }
+            fingerFailed(finger);
+            finger = routingTable.closestPrecedingNode(key);
+        }
 
-        BigInteger nodeID = getNodeID();
-        List<ChordNodeInterface> fingers = getFingerTable();
+        return succstub.findSuccessor(keyid);                       // no closer finger left - move on to the successor
+    }
 
-        int size = fingers.size() - 1;
-        //System.out.println("FingerTable size: "+fingers.size());
-        for (int i = 0; i < fingers.size() - 1; i++) {
-            int m = size - i;
-            ChordNodeInterface ftsucc = fingers.get(m);
-            try {
-                BigInteger ftsuccID = ftsucc.getNodeID();
+    /**
+     * Forget a finger found unreachable: its cached stub and every entry of the routing table that points to it
+     * @param finger
+     */
+    public void fingerFailed(NodeRef finger) {
+        Util.invalidateNode(finger.getNodeID());
+        routingTable.removeNode(finger.getNodeID());
+    }
+
+    @Override
+    public NodeRef findSuccessorRef(BigInteger keyid) throws RemoteException {
 
-                Registry registry = Util.locateRegistry(ftsucc.getNodeIP());
+        if (StaticTracker.ITERATIVE_LOOKUP) {
+            LookupResult result = new IterativeLookup().lookup(this, keyid);
+            return result == null ? null : result.getOwner();
+        }
 
-                if (registry == null)
-                    return this;
+        return refOf(findSuccessor(keyid));
+    }
 
-                ChordNodeInterface ftsuccnode = (ChordNodeInterface) registry.lookup(ftsuccID.toString());
+    @Override
+    public List<NodeRef> findSuccessorRefs(BigInteger keyid) throws RemoteException {
 
-                // check that ftsuccID is a member of the set {nodeID+1,...,ID-1}
-                boolean cond = Util.computeLogic(ftsuccID, nodeID.add(new BigInteger("1")), ID.subtract(new BigInteger("1")));
-                if (cond) {
-                    return ftsuccnode;
-                }
-            } catch (Exception e) {
-                //e.printStackTrace();
-            }
+        if (StaticTracker.ITERATIVE_LOOKUP) {
+            LookupResult result = new IterativeLookup().lookup(this, keyid);
+            return result == null ? Collections.<NodeRef>emptyList() : result.getSuccessors();
         }
 
-        return (ChordNodeInterface) this;
+        NodeRef owner = findSuccessorRef(keyid);
+        return owner == null ? Collections.<NodeRef>emptyList() : Collections.singletonList(owner);
     }
 
     @Override
-    public void notifySuccessor(ChordNodeInterface pred_new) throws RemoteException {
+    public Map<BigInteger, List<NodeRef>> findSuccessors(Collection<BigInteger> keyids) throws RemoteException {
 
-        ChordNodeInterface pred_old = this.getPredecessor();
+        Map<BigInteger, List<NodeRef>> owners = new LinkedHashMap<BigInteger, List<NodeRef>>();
 
-        if (pred_old == null) {
-            this.setPredecessor(pred_new);        // accept the new predecessor
-            return;
+        if (StaticTracker.ITERATIVE_LOOKUP) {
+            // one traversal for all the keys - keys whose lookup failed are left out
+            Map<BigInteger, LookupResult> results = new IterativeLookup().lookupAll(this, keyids);
+            for (Map.Entry<BigInteger, LookupResult> result : results.entrySet())
+                owners.put(result.getKey(), result.getValue().getSuccessors());
+            return owners;
+        }
+
+        for (BigInteger keyid : keyids) {
+            List<NodeRef> successors = findSuccessorRefs(keyid);
+            if (!successors.isEmpty())
+                owners.put(keyid, successors);
+        }
+        return owners;
+    }
+
+    // the first entry of the successor list that answers - unreachable entries are failed over on the way
+    private NodeRef liveSuccessor() {
+
+        NodeRef succ = getSuccessorRef();
+        while (succ != null) {
+            if (Util.registryHandle(stubOf(succ)) != null)
+                return succ;
+            NodeRef next = successorFailed(succ);
+            succ = next == null || next.equals(succ) ? null : next;
+        }
+
+        return null;
+    }
+
+    @Override
+    public LookupStep findNextHop(RingId key) throws RemoteException {
+
+        // answered from local state only - the caller resolves the stub of the node it contacts next
+        List<NodeRef> successors = successorList;                // ids of the successors are known locally
+        if (successors.isEmpty())
+            return null;
+
+        NodeRef succ = successors.get(0);
+
+        // keyid is a member of the set {prevID+1,...,succID} for an entry of the successor list: that entry owns the key,
+        // the entries after it take over if it fails
+        RingId prev = ringID;
+        for (int i = 0; i < successors.size(); i++) {
+            RingId entry = successors.get(i).getRingID();
+            if (key.inOpenClosed(prev, entry))
+                return new LookupStep(successors.get(i), true, successors.subList(i + 1, successors.size()));
+            prev = entry;
+        }
+
+        // otherwise the caller should continue at the highest predecessor of keyid in our finger table
+        NodeRef highest_pred = routingTable.closestPrecedingNode(key);
+        NodeRef next = highest_pred == null ? succ : highest_pred;   // no closer finger - move on to the successor
+
+        // successors that also precede keyid are the backups, the one closest to keyid first
+        List<NodeRef> backups = new ArrayList<NodeRef>();
+        for (int i = successors.size() - 1; i >= 0; i--) {
+            NodeRef backup = successors.get(i);
+            if (!backup.equals(next) && backup.getRingID().inOpen(ringID, key))
+                backups.add(backup);
+        }
+
+        return new LookupStep(next, false, backups);
+    }
+
+    @Override
+    public Map<RingId, LookupStep> findNextHops(Collection<RingId> keyids) throws RemoteException {
+
+        // one remote call answers a whole batch - the caller splits it by next hop
+        Map<RingId, LookupStep> steps = new LinkedHashMap<RingId, LookupStep>();
+        for (RingId keyid : keyids) {
+            LookupStep step = findNextHop(keyid);
+            if (step == null)
+                continue;                                            // left out - the caller asks a backup for it
+            steps.put(keyid, step);
         }
+        return steps;
+    }
 
-        BigInteger succID = this.getNodeID();
-        BigInteger pred_oldID = pred_old.getNodeID();
+    @Override
+    public void notifySuccessor(ChordNodeInterface pred_new) throws RemoteException {
+
+        NodeRef ref = refOf(pred_new);
+        if (ref != null)
+            notifySuccessor(ref);
+    }
+
+    @Override
+    public void notifySuccessor(NodeRef pred_new) {
 
-        BigInteger pred_newID = pred_new.getNodeID();
+        NodeRef pred_old = this.getPredecessorRef();
 
-        // check that ftsuccID is a member of the set {nodeID+1,...,ID-1}
-        boolean cond = Util.computeLogic(pred_newID, pred_oldID.add(new BigInteger("1")), succID.add(new BigInteger("1")));
-        if (cond) {
-            this.setPredecessor(pred_new);        // accept the new predecessor
+        // accept the new predecessor if there is none or pred_newID is a member of the set {pred_oldID+1,...,nodeID}
+        if (pred_old == null || pred_new.getRingID().inOpenClosed(pred_old.getRingID(), ringID)) {
+            this.setPredecessor(stubOf(pred_new), pred_new);
         }
 
     }
@@ -238,10 +552,49 @@ public class Node extends UnicastRemoteObject implements ChordNodeInterface {
         buildMessage(destID, destpath);
     }
 
+    /**
+     * The whole metadata map - a remote caller receives a copy of every entry. Use the point, batch or paged
+     * queries below for remote access
+     */
     public Map<BigInteger, Message> getFilesMetadata() throws RemoteException {
         return filesMetadata;
     }
 
+    @Override
+    public Message getFileMetadata(BigInteger fileID) {
+        return filesMetadata.get(fileID);
+    }
+
+    @Override
+    public Map<BigInteger, Message> getFilesMetadata(Collection<BigInteger> fileIDs) {
+        // only the keys held by this node are in the answer
+        Map<BigInteger, Message> metadata = new HashMap<BigInteger, Message>();
+        for (BigInteger fileID : fileIDs) {
+            Message message = filesMetadata.get(fileID);
+            if (message != null)
+                metadata.put(fileID, message);
+        }
+        return metadata;
+    }
+
+    @Override
+    public SortedMap<BigInteger, Message> getFilesMetadataPage(BigInteger after, int limit) {
+        // the entries after 'after' (all if null) in key order, at most limit of them
+        NavigableMap<BigInteger, Message> tail = after == null ? filesMetadata : filesMetadata.tailMap(after, false);
+        SortedMap<BigInteger, Message> page = new TreeMap<BigInteger, Message>();
+        for (Map.Entry<BigInteger, Message> entry : tail.entrySet()) {
+            if (page.size() >= limit)
+                break;
+            page.put(entry.getKey(), entry.getValue());
+        }
+        return page;
+    }
+
+    @Override
+    public void updateFileMetadata(Message message) {
+        filesMetadata.put(message.getFilename(), message);
+    }
+
     private void buildMessage(BigInteger destID, String destpath) throws RemoteException {
 
         Message message = new Message();
@@ -260,146 +613,424 @@ public class Node extends UnicastRemoteObject implements ChordNodeInterface {
 
     @Override
     public void incrementclock() throws RemoteException {
-        counter++;
+        clock.incrementAndGet();
+    }
+
+    // advance the clock past a timestamp received from another node - Lamport's max(local, received) + 1
+    private long mergeclock(long received) {
+        return clock.accumulateAndGet(received, (local, remote) -> Math.max(local, remote) + 1);
     }
 
+    /**
+     * Lock every file on this node - votes for any file are denied until releaseLocks()
+     */
     @Override
-    public void acquireLock() throws RemoteException {
-        incrementclock();
-        CS_BUSY = true;
+    public boolean acquireLock() throws RemoteException {
+        return acquire(LockTable.ALL_FILES, nodeID, OperationType.WRITE);
+    }
+
+    @Override
+    public boolean acquireLock(BigInteger fileID) throws RemoteException {
+        return acquireLock(fileID, nodeID);
     }
 
+    /**
+     * Lock fileID for the request of holder (Message.getHolder) - released by releaseLocks(fileID, holder)
+     */
+    @Override
+    public boolean acquireLock(BigInteger fileID, BigInteger holder) throws RemoteException {
+        return acquire(fileID, holder, OperationType.WRITE);
+    }
+
+    /**
+     * Share the lock of fileID with the other readers - only writers are kept out
+     */
+    @Override
+    public boolean acquireReadLock(BigInteger fileID) throws RemoteException {
+        return acquireReadLock(fileID, nodeID);
+    }
+
+    @Override
+    public boolean acquireReadLock(BigInteger fileID, BigInteger holder) throws RemoteException {
+        return acquire(fileID, holder, OperationType.READ);
+    }
+
+    // the lock is never taken from someone else. A grant still held for a request that lost is given back by its
+    // abort, or runs out with its lease - wait for that, at most one lease period
+    private boolean acquire(BigInteger fileID, BigInteger holder, OperationType optype) {
+        long timestamp = clock.incrementAndGet();
+        long deadline = System.currentTimeMillis() + LEASE_PERIOD;
+        while (!locks.get(fileID).acquire(holder, timestamp, optype)) {
+            if (System.currentTimeMillis() > deadline)
+                return false;
+            expireLeases();
+            try {
+                Thread.sleep(ACQUIRE_RETRY);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Release the locks of all the files on this node
+     */
     @Override
     public void releaseLocks() throws RemoteException {
-        CS_BUSY = false;
-        WANTS_TO_ENTER_CS = false;
+        locks.releaseAll();
         incrementclock();
+        for (BigInteger fileID : locks.waiting())
+            promote(fileID);
+    }
+
+    @Override
+    public void releaseLocks(BigInteger fileID) throws RemoteException {
+        locks.get(fileID).release();
+        incrementclock();
+        promote(fileID);
+    }
+
+    /**
+     * Release the grant on fileID held for holder only - the other readers keep theirs
+     */
+    @Override
+    public void releaseLocks(BigInteger fileID, BigInteger holder) throws RemoteException {
+        locks.get(fileID).release(holder);
+        incrementclock();
+        promote(fileID);
+    }
+
+    /**
+     * Extend the leases held for holder on fileID by one lease period
+     * @return false if the lease has already expired here - the lock may since have been granted to someone else
+     */
+    @Override
+    public boolean renewLeases(BigInteger fileID, BigInteger holder) throws RemoteException {
+        return locks.renew(fileID, holder);
+    }
+
+    /**
+     * Renew the leases of the request in message on this node and on the voters of the file
+     * @return the number of nodes where the lease was still held
+     */
+    @Override
+    public int multicastRenewLeases(Message message, Set<Message> replicas) throws RemoteException {
+
+        int held = renewLeases(message.getFilename(), message.getHolder()) ? 1 : 0;
+        for (Message replica : replicas) {
+            if (replica.getNodeID().equals(nodeID))
+                continue;
+            ChordNodeInterface node = Util.lookupNode(replica.getNodeID(), replica.getNodeIP());
+            if (node == null)
+                continue;
+            try {
+                if (node.renewLeases(message.getFilename(), message.getHolder()))
+                    held++;
+            } catch (RemoteException e) {
+                Util.invalidateNode(replica.getNodeID());
+            }
+        }
+        return held;
     }
 
+    /**
+     * Drop the grants whose lease has run out - run periodically by the maintenance scheduler
+     * @return the number of grants dropped
+     */
     @Override
-    public boolean requestWriteOperation(Message message) throws RemoteException {
+    public int expireLeases() {
+        int expired = locks.expire();
+        for (BigInteger fileID : locks.waiting())
+            promote(fileID);
+        return expired;
+    }
 
-        incrementclock();                                // increment clock
-        message.setClock(counter);                        // set the timestamp of message
+    // grant the queued requests for fileID that its lock now allows and send the votes to their coordinators
+    private void promote(BigInteger fileID) {
+        for (Message request : locks.promote(fileID))
+            voteexecutor.execute(() -> sendVote(request));
+    }
+
+    // the deferred GRANT of a queued request - a coordinator that cannot be reached gets its grant released
+    private void sendVote(Message request) {
+
+        ChordNodeInterface node = Util.lookupNode(request.getNodeID(), request.getNodeIP());
+        try {
+            if (node != null) {
+                node.onReceivedVote(voteOn(request, true, true));
+                return;
+            }
+        } catch (RemoteException e) {
+            Util.invalidateNode(request.getNodeID());
+        }
+        locks.get(request.getFilename()).release(request.getHolder());
+        promote(request.getFilename());
+    }
+
+    // a vote of this node on request
+    private Message voteOn(Message request, boolean granted, boolean deferred) throws RemoteException {
+        Message vote = new Message();
+        vote.setNodeID(nodeID);
+        vote.setNodeIP(nodeIP);
+        vote.setClock(clock.incrementAndGet());
+        vote.setRequestID(request.getRequestID());
+        vote.setFilename(request.getFilename());
+        vote.setOptype(request.getOptype());
+        vote.setAcknowledged(granted);
+        vote.setDeferred(deferred);
+        return vote;
+    }
+
+    @Override
+    public long getExpiredLeases() throws RemoteException {
+        return locks.getExpired();
+    }
+
+    /**
+     * Set the read and write quorums of the requests for fileID this node coordinates. Files without one are
+     * granted by a majority of the voters for reads and writes
+     */
+    @Override
+    public void setQuorum(BigInteger fileID, Quorum quorum) throws RemoteException {
+        if (quorum == null)
+            quorums.remove(fileID);
+        else
+            quorums.put(fileID, quorum);
+    }
+
+    @Override
+    public Quorum getQuorum(BigInteger fileID) throws RemoteException {
+        return quorums.get(fileID);
+    }
+
+    @Override
+    public boolean requestWriteOperation(Message message, Set<Message> replicas) throws RemoteException {
+
+        long timestamp = clock.incrementAndGet();        // increment clock
+        message.setClock(timestamp);                      // set the timestamp of message
         message.setOptype(OperationType.WRITE);
 
         // wants to access resource - multicast clock + message to other processes
-        WANTS_TO_ENTER_CS = true;
-        boolean electionresult = multicastMessage(message);            // request for write permission from N/2 + 1 replicas (majority)
+        locks.get(message.getFilename()).want(timestamp);
+        boolean electionresult = multicastMessage(message, replicas);  // request for write permission from W replicas
 
         return electionresult;
 
     }
 
     @Override
-    public boolean requestReadOperation(Message message) throws RemoteException {
+    public boolean requestReadOperation(Message message, Set<Message> replicas) throws RemoteException {
 
-        incrementclock();                                // increment clock
-        message.setClock(counter);                        // set the timestamp of message
+        long timestamp = clock.incrementAndGet();        // increment clock
+        message.setClock(timestamp);                      // set the timestamp of message
         message.setOptype(OperationType.READ);
 
         // wants to access resource - multicast clock + message to other processes
-        WANTS_TO_ENTER_CS = true;
-        boolean electionresult = multicastMessage(message);                // request for read permission from N/2 + 1 replicas (majority)
+        locks.get(message.getFilename()).want(timestamp, OperationType.READ);
+        boolean electionresult = multicastMessage(message, replicas);      // request for read permission from R replicas
 
         return electionresult;
     }
 
-    // multicast message to N/2 + 1 processes (random processes)
-    private boolean multicastMessage(Message message) throws AccessException, RemoteException {
+    // multicast message to all the replicas at once and decide as soon as the quorum grants or is out of reach
+    private boolean multicastMessage(Message message, Set<Message> voters) throws AccessException, RemoteException {
+
+        List<Message> replicas = Operations.others(voters, message);     // the coordinator locks its own copy
+
+        // a ballot of its own for this request - votes of concurrent requests are never mixed. The client may have
+        // chosen the request ID already, to address the grants of the request when it commits or aborts
+        long requestID = message.getRequestID() != 0 ? message.getRequestID() : requests.incrementAndGet();
+        message.setRequestID(requestID);
+        Ballot ballot = new Ballot(replicas.size(), quorumOf(message, replicas.size()));
+        ballots.put(requestID, ballot);
+
+        for (Message replica : replicas) {
+            voteexecutor.execute(() -> requestVote(replica, message));
+        }
 
-        // the same as MutexProcess - see MutexProcess
+        boolean granted = false;
+        try {
+            granted = ballot.await(VOTE_TIMEOUT);                    // one round trip to the fastest quorum
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            ballots.remove(requestID);                              // decided - later votes find no ballot
+        }
 
-        ArrayList<Message> replicas = new ArrayList<>(activenodesforfile);
-        replicas.remove(message);
+        message.setAcknowledged(granted);                          // the decision travels with the request
+        return granted;
+    }
 
-        Collections.shuffle(replicas);
+    // votes needed among the voters for the operation of message - a majority unless a quorum was set for the file
+    private int quorumOf(Message message, int voters) {
+        Quorum quorum = quorums.get(message.getFilename());
+        if (quorum == null)
+            return voters/2 + 1;
+        return Math.max(quorum.of(message.getOptype(), voters), 1);
+    }
 
-        for (int i = 0; i < replicas.size(); i++) {
-            String ip = replicas.get(i).getNodeIP();
-            String id = replicas.get(i).getNodeID().toString();
+    // ask one voter - a vote that arrives after the ballot was decided is not counted, so a late grant is given back.
+    // A voter that queued the request sends its vote later, to onReceivedVote
+    private void requestVote(Message replica, Message message) {
 
+        Message vote = null;
+        ChordNodeInterface node = Util.lookupNode(replica.getNodeID(), replica.getNodeIP());
+        if (node != null) {
             try {
-                ChordNodeInterface node = (ChordNodeInterface) Util.locateRegistry(ip).lookup(id);
-                Message m = node.onMessageReceived(message);
-                while (m == null) {
-                }
-                synchronized (queueACK) {
-                    queueACK.add(m);
-                }
-            } catch (NotBoundException e) {
-                e.printStackTrace();
+                vote = node.onMessageReceived(message);
+            } catch (RemoteException e) {
+                Util.invalidateNode(replica.getNodeID());
             }
         }
-        return majorityAcknowledged();
-    }
 
-    @Override
-    public Message onMessageReceived(Message message) throws RemoteException {
+        if (vote == null) {
+            try {
+                vote = new Message();                               // no answer - counts against
+            } catch (RemoteException e) {
+                return;
+            }
+            vote.setNodeID(replica.getNodeID());
+            vote.setNodeIP(replica.getNodeIP());
+            vote.setRequestID(message.getRequestID());
+        }
 
-        // increment the local clock
-        incrementclock();
+        mergeclock(vote.getClock());
+        if (!vote.isDeferred())
+            count(node, vote);
+    }
 
-        // Hint: for all the 3 cases, use Message to send GRANT or DENY. e.g. message.setAcknowledgement(true) = GRANT
-        Message reply = new Message();
-        reply.setNodeID(this.nodeID);
-        reply.setNodeIP(this.nodeIP);
-        reply.setClock(this.counter);
+    // offer a vote to the ballot of its request
+    private void count(ChordNodeInterface node, Message vote) {
+        Ballot ballot = ballots.get(vote.getRequestID());
+        boolean counted = ballot != null && ballot.offer(vote);
+        if (!counted && vote.isAcknowledged())
+            releaseVote(node, vote);
+    }
 
-        /**
-         *  case 1: Receiver is not accessing shared resource and does not want to: GRANT, acquirelock and reply
-         */
-        if (!WANTS_TO_ENTER_CS && !CS_BUSY) {
-            reply.setAcknowledged(true);
-            acquireLock();
-            return reply;
+    // tell a straggler that granted too late to release the lock it holds for this request
+    private void releaseVote(ChordNodeInterface node, Message vote) {
+        try {
+            Message release = new Message();
+            release.setNodeID(nodeID);
+            release.setNodeIP(nodeIP);
+            release.setClock(clock.get());
+            release.setRequestID(vote.getRequestID());
+            release.setFilename(vote.getFilename());
+            release.setAcknowledged(false);
+            node.onReceivedVotersDecision(release);
+        } catch (RemoteException e) {
+            //
         }
+    }
 
-        /**
-         *  case 2: Receiver already has access to the resource: DENY and reply
-         */
-        if(CS_BUSY) {
-            reply.setAcknowledged(false);
-            return reply;
-        }
+    /**
+     * The deferred vote of a voter that queued a request of this node and has now granted it
+     */
+    @Override
+    public void onReceivedVote(Message vote) throws RemoteException {
+        mergeclock(vote.getClock());
+        count(Util.lookupNode(vote.getNodeID(), vote.getNodeIP()), vote);
+    }
 
-        /**
-         *  case 3: Receiver wants to access resource but is yet to (compare own multicast message to received message
-         *  the message with lower timestamp wins) - GRANT if received is lower, acquirelock and reply
-         */
-        boolean ack = message.getClock() < reply.getClock();
-        if (ack) {
-            acquireLock();
-            reply.setAcknowledged(true);
+    /**
+     * A voter asks for its grant back to give it to an older request. It is given back only while the ballot is
+     * still open - a request that has won keeps its lock, one that has lost releases it anyway with its abort
+     */
+    @Override
+    public void onReceivedInquire(Message inquire) throws RemoteException {
+
+        mergeclock(inquire.getClock());
+        Ballot ballot = ballots.get(inquire.getRequestID());
+        if (ballot == null || !ballot.withdraw(inquire.getNodeID()))
+            return;
+
+        ChordNodeInterface voter = Util.lookupNode(inquire.getNodeID(), inquire.getNodeIP());
+        if (voter == null)
+            return;
+        Message relinquish = new Message();
+        relinquish.setNodeID(nodeID);
+        relinquish.setNodeIP(nodeIP);
+        relinquish.setClock(clock.incrementAndGet());
+        relinquish.setRequestID(inquire.getRequestID());
+        relinquish.setFilename(inquire.getFilename());
+        try {
+            voter.onReceivedRelinquish(relinquish);
+        } catch (RemoteException e) {
+            Util.invalidateNode(inquire.getNodeID());
         }
-        return reply;
     }
 
+    /**
+     * The coordinator of a younger request gives its grant back - queue the request again and grant the lock to the
+     * oldest request waiting for it
+     */
     @Override
-    public boolean majorityAcknowledged() throws RemoteException {
-
-        // count the number of yes (i.e. where message.isAcknowledged = true)
-        // check if it is the majority or not
-        // return the decision (true or false)
-        long pro = queueACK.stream().filter(a -> a.isAcknowledged()).count();
-        long against = queueACK.stream().filter(a -> !a.isAcknowledged()).count();
+    public void onReceivedRelinquish(Message message) throws RemoteException {
+        mergeclock(message.getClock());
+        if (locks.get(message.getFilename()).relinquish(message.getHolder()))
+            promote(message.getFilename());
+    }
 
-        return pro>against;
+    // ask the coordinators of the younger requests holding the lock that request waits for to give their grants back
+    private void inquire(Message request) {
+        for (Message holder : locks.get(request.getFilename()).younger(request)) {
+            voteexecutor.execute(() -> {
+                ChordNodeInterface node = Util.lookupNode(holder.getNodeID(), holder.getNodeIP());
+                if (node == null)
+                    return;
+                try {
+                    node.onReceivedInquire(voteOn(holder, false, false));
+                } catch (RemoteException e) {
+                    Util.invalidateNode(holder.getNodeID());
+                }
+            });
+        }
     }
 
     @Override
-    public void setActiveNodesForFile(Set<Message> messages) throws RemoteException {
+    public Message onMessageReceived(Message message) throws RemoteException {
 
-        activenodesforfile = messages;
+        // merge the timestamp of the request into the local clock
+        long timestamp = mergeclock(message.getClock());
 
+        // Hint: for all the 3 cases, use Message to send GRANT or DENY. e.g. message.setAcknowledgement(true) = GRANT
+        Message reply = new Message();
+        reply.setNodeID(this.nodeID);
+        reply.setNodeIP(this.nodeIP);
+        reply.setClock(timestamp);
+        reply.setRequestID(message.getRequestID());
+        reply.setFilename(message.getFilename());
+
+        /**
+         *  only the lock of the requested file is involved - see FileLock.vote
+         *  case 1: Receiver is not accessing the file and does not want to: GRANT, acquirelock and reply
+         *  case 2: Receiver already has access to the file: queue the request and reply that the vote is deferred -
+         *  unless both are reads. Younger holders are asked to relinquish so the oldest request cannot deadlock
+         *  case 3: Receiver wants to access the file but is yet to - the request with the lower timestamp wins,
+         *  unless both are reads. The other one is queued
+         *  Requests are only denied while every file on the node is locked
+         */
+        FileLock.Vote vote = locks.vote(message);
+        reply.setAcknowledged(vote == FileLock.Vote.GRANTED);
+        reply.setDeferred(vote == FileLock.Vote.QUEUED);
+        if (vote == FileLock.Vote.QUEUED)
+            inquire(message);
+        promote(message.getFilename());         // leases dropped by the vote may have freed the lock for older requests
+        return reply;
     }
 
     @Override
     public void onReceivedVotersDecision(Message message) throws RemoteException {
 
-        // release CS lock if voter initiator says he was denied access bcos he lacks majority votes
+        // release the file lock if voter initiator says he was denied access bcos he lacks majority votes
         // otherwise lock is kept
-        if(!message.isAcknowledged()) releaseLocks();
+        if(!message.isAcknowledged()) {
+            locks.get(message.getFilename()).release(message.getHolder());   // only if still held or queued for this request
+            mergeclock(message.getClock());
+            promote(message.getFilename());
+        }
     }
 
     @Override
@@ -409,41 +1040,71 @@ public class Node extends UnicastRemoteObject implements ChordNodeInterface {
         // perform operation by using the Operations class
         // Release locks after this operation
     	if (message.getOptype().equals(no.hvl.dat110.node.OperationType.WRITE)) {
-        Operations op = new Operations(this,message,activenodesforfile);
+        Operations op = new Operations(this,message);
         op.performOperation();
-        releaseLocks();
+        releaseLocks(message.getFilename(), message.getHolder());
     	}
     }
 
+    /**
+     * @return the number of replicas that acknowledged - the call returns as soon as all have, so the caller can
+     * release its own lock right away
+     */
     @Override
-    public void multicastUpdateOrReadReleaseLockOperation(Message message) throws RemoteException {
+    public int multicastUpdateOrReadReleaseLockOperation(Message message, Set<Message> replicas) throws RemoteException {
 
         // check the operation type:
         // if this is a write operation, multicast the update to the rest of the replicas (voters)
         // otherwise if this is a READ operation multicast releaselocks to the replicas (voters)
-        Operations op = new Operations(this,message,activenodesforfile);
+        Operations op = new Operations(this,message,replicas);
         if(message.getOptype() == OperationType.WRITE) {
-            op.multicastOperationToReplicas(message);
+            return op.multicastOperationToReplicas(message);
         }else {
-            op.multicastReadReleaseLocks();
+            return op.multicastReadReleaseLocks();
         }
     }
 
+    /**
+     * One message for the decision and its outcome: a won write is applied and its lock released, a won read has
+     * its read grant released, and a lost request is aborted - the grant held for the coordinator is released
+     */
     @Override
-    public void multicastVotersDecision(Message message) throws RemoteException {
+    public void onReceivedCommit(Message message) throws RemoteException {
+
+        if (!message.isAcknowledged())
+            onReceivedVotersDecision(message);
+        else if (message.getOptype() == OperationType.WRITE)
+            onReceivedUpdateOperation(message);
+        else
+            releaseLocks(message.getFilename(), message.getHolder());
+    }
+
+    /**
+     * Send the decision of the request in message to the replicas, with the update if it is a won write. Replaces
+     * multicastVotersDecision followed by multicastUpdateOrReadReleaseLockOperation: one fan-out instead of two
+     * @return the number of replicas that acknowledged
+     */
+    @Override
+    public int multicastCommit(Message message, Set<Message> replicas) throws RemoteException {
+
+        Operations op = new Operations(this, message, replicas);
+        return op.multicastCommit(message);
+    }
 
-        ArrayList<Message> replicas = new ArrayList<>(activenodesforfile);
-        replicas.remove(message);
+    @Override
+    public void multicastVotersDecision(Message message, Set<Message> replicas) throws RemoteException {
 
-        // multicast voters decision to the rest of the replicas (i.e activenodesforfile)
-        for(Message rep : replicas) {
+        // multicast voters decision to the rest of the replicas (voters)
+        for(Message rep : Operations.others(replicas, message)) {
             String ip = rep.getNodeIP();
             BigInteger id = rep.getNodeID();
+            ChordNodeInterface c = Util.lookupNode(id, ip);
+            if (c == null)
+                continue;
             try{
-                ChordNodeInterface c = (ChordNodeInterface) Util.locateRegistry(ip).lookup(id.toString());
                 c.onReceivedVotersDecision(message);
-            } catch (NotBoundException e) {
-                e.printStackTrace();
+            } catch (RemoteException e) {
+                Util.invalidateNode(id);
             }
         }
 
@@ -10,7 +10,7 @@ import java.rmi.RemoteException;
 import no.hvl.dat110.rpc.interfaces.ChordNodeInterface;
 import no.hvl.dat110.util.Util;
 
-public class NodeInformation extends Thread{
+public class NodeInformation implements Runnable {
 	
 	private ChordNodeInterface chordnode;
 	
@@ -20,28 +20,21 @@ public class NodeInformation extends Thread{
 	
 	public void run() {
 		
-		while(true) {
-			try {
-				printInfo();
-				Thread.sleep(3000);
-			} catch (InterruptedException e) {
-				//e.printStackTrace();
-			}
-		}
+		printInfo();
 	}
 	
 	public synchronized void printInfo() {
 		try {
+			RingState state = chordnode.getRingState(true);			// one remote call for the node, its neighbours and fingers
+			NodeRef node = state.getNode();
 			System.out.println("==================================");
-			System.out.println("Node Identifier = "+chordnode.getNodeID());
-			System.out.println("Node IP address = "+chordnode.getNodeIP());
-			System.out.println("successor("+ chordnode.getNodeIP()+") = "+chordnode.getSuccessor().getNodeIP());
-			if(chordnode.getPredecessor() == null)
-				System.out.println("predecessor("+ chordnode.getNodeIP()+") = "+chordnode.getPredecessor());
-			else
-				System.out.println("predecessor("+ chordnode.getNodeIP()+") = "+chordnode.getPredecessor().getNodeIP());
-			System.out.println("Current FingerTable for "+chordnode.getNodeIP()+" => "+Util.toString(chordnode.getFingerTable()));
-			System.out.println("Current File keyids for "+chordnode.getNodeIP()+" => "+chordnode.getFileKey());
+			System.out.println("Node Identifier = "+node.getNodeID());
+			System.out.println("Node IP address = "+node.getNodeIP());
+			System.out.println("successor("+ node.getNodeIP()+") = "+state.getSuccessor());
+			System.out.println("predecessor("+ node.getNodeIP()+") = "+state.getPredecessor());
+			System.out.println("Current FingerTable for "+node.getNodeIP()+" => "+Util.toString(state.getFingers()));
+			System.out.println("Current File keyids for "+node.getNodeIP()+" => "+Util.getFileKeys(chordnode));
+			System.out.println("Expired lock leases for "+node.getNodeIP()+" = "+chordnode.getExpiredLeases());
 			System.out.println("==================================");
 		}catch(RemoteException e) {
 			//
@@ -0,0 +1,79 @@
+package no.hvl.dat110.node;
+
+/**
+ * A node reference kept by value: the identifier and address of a node. The stub is resolved only when needed.
+ * @author tdoy
+ */
+
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.rmi.RemoteException;
+
+import no.hvl.dat110.rpc.interfaces.ChordNodeInterface;
+import no.hvl.dat110.util.RingId;
+import no.hvl.dat110.util.Util;
+
+public class NodeRef implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	private BigInteger nodeID;
+	private RingId ringID;
+	private String nodeIP;
+
+	public NodeRef(BigInteger nodeID, String nodeIP) {
+		this.nodeID = nodeID;
+		this.ringID = RingId.of(nodeID);
+		this.nodeIP = nodeIP;
+	}
+
+	/**
+	 * Build a reference from a stub - costs two remote calls unless node is a local instance
+	 * @param node
+	 * @return the reference or null if node is null
+	 * @throws RemoteException
+	 */
+	public static NodeRef of(ChordNodeInterface node) throws RemoteException {
+		if(node == null)
+			return null;
+		return new NodeRef(node.getNodeID(), node.getNodeIP());
+	}
+
+	public BigInteger getNodeID() {
+		return nodeID;
+	}
+
+	public RingId getRingID() {
+		return ringID;
+	}
+
+	public String getNodeIP() {
+		return nodeIP;
+	}
+
+	/**
+	 * @return the remote stub of this node (cached) or null if the node can't be reached
+	 */
+	public ChordNodeInterface resolve() {
+		return Util.lookupNode(nodeID, nodeIP);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(this == obj)
+			return true;
+		if(!(obj instanceof NodeRef))
+			return false;
+		return nodeID.equals(((NodeRef) obj).nodeID);
+	}
+
+	@Override
+	public int hashCode() {
+		return nodeID.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return nodeIP;
+	}
+
+}
@@ -11,11 +11,19 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Serializable;
+import java.math.BigInteger;
 import java.rmi.AccessException;
-import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
-import java.rmi.registry.Registry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import no.hvl.dat110.rpc.interfaces.ChordNodeInterface;
 import no.hvl.dat110.util.Util;
@@ -26,6 +34,14 @@ public class Operations implements Serializable {
 	 * 
 	 */
 	private static final long serialVersionUID = 1L;
+	public static final long ACK_TIMEOUT = 5000;			// ms to wait for the replicas to apply an update or release a lock
+	
+	private static final ExecutorService replicaexecutor = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "replica-update");
+		t.setDaemon(true);
+		return t;
+	});
+	
 	private Message message;
 	private ChordNodeInterface node;
 	private String filecontent;
@@ -37,6 +53,11 @@ public class Operations implements Serializable {
 		this.activenodeswithfile = activenodeswithfile;
 	}
 	
+	// an operation on the local copy only - nothing to multicast
+	public Operations(ChordNodeInterface node, Message message) throws RemoteException {
+		this(node, message, Collections.<Message>emptySet());
+	}
+	
 	public void performOperation() throws RemoteException {
 		System.out.println(node.getNodeIP()+ ": "+message.getOptype().toString()+" processing...");
 
@@ -58,44 +79,75 @@ public class Operations implements Serializable {
 	}
 	
 	// multicast operation to other replicas
-	public void multicastOperationToReplicas(Message message) throws AccessException, RemoteException {
+	// @return the number of replicas that applied it - they have released their lock when they answer
+	public int multicastOperationToReplicas(Message message) throws AccessException, RemoteException {
 		this.message = message;
-		Set<Message> replicas = this.activenodeswithfile;
-		replicas.remove(message);										// don't repeat the operation for the initiating process
-		
-		for(Message activenodes : replicas) {
-			String nodeip = activenodes.getNodeIP();
-			String nodeid = activenodes.getNodeID().toString();
-			try {
-				Registry registry = Util.locateRegistry(nodeip);		// locate the registry and see if the node is still active
-				ChordNodeInterface node = (ChordNodeInterface) registry.lookup(nodeid);
-
-				node.onReceivedUpdateOperation(message);
-							
-			} catch (NotBoundException e) {
-
-				//e.printStackTrace();
-			}
-		}
+		return multicast(node -> node.onReceivedUpdateOperation(message));
+	}
+	
+	// @return the number of replicas that released the read lock of this request
+	public int multicastReadReleaseLocks() throws AccessException, RemoteException {
+		return multicast(node -> node.releaseLocks(message.getFilename(), message.getHolder()));	// only our read grant on this file
+	}
+	
+	// multicast the voters' decision together with the operation: replicas apply a won write, or give back the
+	// grant of a won read or of a lost request
+	// @return the number of replicas that acknowledged
+	public int multicastCommit(Message message) throws AccessException, RemoteException {
+		this.message = message;
+		return multicast(node -> node.onReceivedCommit(message));
 	}
 	
-	public void multicastReadReleaseLocks() throws AccessException, RemoteException {
+	// call every replica but the initiating one in parallel and wait until all have answered or failed, or
+	// ACK_TIMEOUT has passed - a replica that answers later is released by its lease
+	private int multicast(ReplicaCall call) {
 		
-		Set<Message> replicas = this.activenodeswithfile;
+		List<Message> replicas = others(this.activenodeswithfile, message);	// don't repeat the operation for the initiating process
 		
+		AtomicInteger acks = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(replicas.size());
 		for(Message activenodes : replicas) {
-			String nodeip = activenodes.getNodeIP();
-			String nodeid = activenodes.getNodeID().toString();
-
-			try {
-				Registry registry = Util.locateRegistry(nodeip);					// locate the registry and see if the node is still active
-				ChordNodeInterface node = (ChordNodeInterface) registry.lookup(nodeid);
-				node.releaseLocks();				
-			} catch (NotBoundException e) {
-
-				//e.printStackTrace();
-			}
-		}	
+			replicaexecutor.execute(() -> {
+				String nodeip = activenodes.getNodeIP();
+				BigInteger nodeid = activenodes.getNodeID();
+				try {
+					ChordNodeInterface node = Util.lookupNode(nodeid, nodeip);	// cached stub - see if the node is still active
+					if(node != null) {
+						call.apply(node);
+						acks.incrementAndGet();
+					}
+				} catch (RemoteException e) {
+					
+					Util.invalidateNode(nodeid);
+				} finally {
+					done.countDown();
+				}
+			});
+		}
+		
+		try {
+			done.await(ACK_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return acks.get();
+	}
+	
+	/**
+	 * @return the replicas but the one on the node of message, the coordinator. Messages are compared by node id -
+	 * the coordinator's own entry in the set is a different object after a remote call
+	 */
+	public static List<Message> others(Collection<Message> replicas, Message message) {
+		List<Message> others = new ArrayList<Message>();
+		for(Message replica : replicas) {
+			if(!replica.getNodeID().equals(message.getNodeID()))
+				others.add(replica);
+		}
+		return others;
+	}
+	
+	private interface ReplicaCall {
+		void apply(ChordNodeInterface node) throws RemoteException;
 	}
 	
 	private void read(File file) throws RemoteException {
@@ -123,7 +175,7 @@ public class Operations implements Serializable {
 			bw.close();
 			int v = message.getVersion();
 			message.setVersion(++v); 										// new version number after write operation
-			node.getFilesMetadata().put(message.getFilename(), message);
+			node.updateFileMetadata(message);								// only this entry is sent when node is remote
 									
 		} catch (IOException e) {
 			
@@ -0,0 +1,68 @@
+package no.hvl.dat110.node;
+
+/**
+ * Read and write quorums of a file with N replicas, as in Gifford's weighted voting with one vote per replica.
+ * R + W > N makes every read quorum meet every write quorum, and 2W > N makes every two write quorums meet
+ * @author tdoy
+ */
+
+import java.io.Serializable;
+
+public class Quorum implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int replicas;
+	private final int read;
+	private final int write;
+
+	public Quorum(int replicas, int read, int write) {
+		if(read < 1 || write < 1 || read > replicas || write > replicas)
+			throw new IllegalArgumentException("quorums must be between 1 and "+replicas+": R = "+read+", W = "+write);
+		if(read + write <= replicas)
+			throw new IllegalArgumentException("R + W must be greater than N: R = "+read+", W = "+write+", N = "+replicas);
+		if(2*write <= replicas)
+			throw new IllegalArgumentException("2W must be greater than N: W = "+write+", N = "+replicas);
+
+		this.replicas = replicas;
+		this.read = read;
+		this.write = write;
+	}
+
+	/**
+	 * R = W = N/2 + 1
+	 */
+	public static Quorum majority(int replicas) {
+		return new Quorum(replicas, replicas/2 + 1, replicas/2 + 1);
+	}
+
+	/**
+	 * The quorum for optype among the voters that answer for the file now - scaled up from N so that the
+	 * intersections still hold when fewer replicas are alive
+	 * @param optype
+	 * @param voters
+	 * @return votes needed
+	 */
+	public int of(OperationType optype, int voters) {
+		int q = optype == OperationType.READ ? read : write;
+		return (q*voters + replicas - 1)/replicas;
+	}
+
+	public int getReplicas() {
+		return replicas;
+	}
+
+	public int getRead() {
+		return read;
+	}
+
+	public int getWrite() {
+		return write;
+	}
+
+	@Override
+	public String toString() {
+		return "N = "+replicas+", R = "+read+", W = "+write;
+	}
+
+}
@@ -0,0 +1,47 @@
+package no.hvl.dat110.node;
+
+/**
+ * A snapshot of the ring state of a node, returned by value in a single remote call (getRingState)
+ * @author tdoy
+ */
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+public class RingState implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	private NodeRef node;
+	private NodeRef predecessor;
+	private List<NodeRef> successors;					// the first entry is the immediate successor
+	private List<NodeRef> fingers;						// null if the fingers were not requested
+
+	public RingState(NodeRef node, NodeRef predecessor, List<NodeRef> successors, List<NodeRef> fingers) {
+		this.node = node;
+		this.predecessor = predecessor;
+		this.successors = new ArrayList<NodeRef>(successors);
+		this.fingers = fingers == null ? null : new ArrayList<NodeRef>(fingers);
+	}
+
+	public NodeRef getNode() {
+		return node;
+	}
+
+	public NodeRef getPredecessor() {
+		return predecessor;
+	}
+
+	public NodeRef getSuccessor() {
+		return successors.isEmpty() ? null : successors.get(0);
+	}
+
+	public List<NodeRef> getSuccessors() {
+		return successors;
+	}
+
+	public List<NodeRef> getFingers() {
+		return fingers;
+	}
+
+}
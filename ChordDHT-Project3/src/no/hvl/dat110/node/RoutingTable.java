@@ -0,0 +1,133 @@
+package no.hvl.dat110.node;
+
+/**
+ * project/exercise/demo purpose in dat110
+ * @author tdoy
+ */
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import no.hvl.dat110.util.RingId;
+
+public class RoutingTable {
+	
+	/**
+	 * Local copy of the finger table kept as plain values (NodeRef). Besides the fingers by index, a view 
+	 * ordered by clockwise distance from this node is kept so that the closest preceding finger of a key is 
+	 * found with a binary search - a routing decision makes no remote calls.
+	 */
+	
+	private BigInteger nodeID;
+	private RingId ringID;
+	private NodeRef[] fingers;							// finger i = succ(nodeID + 2^i)
+	
+	private volatile Snapshot snapshot;					// distinct fingers ordered by distance from nodeID
+	
+	public RoutingTable(BigInteger nodeID, int size) {
+		this.nodeID = nodeID;
+		this.ringID = RingId.of(nodeID);
+		this.fingers = new NodeRef[size];
+		this.snapshot = new Snapshot(new NodeRef[0], new RingId[0]);
+	}
+	
+	public int size() {
+		return fingers.length;
+	}
+	
+	public synchronized NodeRef getFinger(int i) {
+		return fingers[i];
+	}
+	
+	public synchronized void setFinger(int i, NodeRef finger) {
+		fingers[i] = finger;
+		rebuild();
+	}
+	
+	/**
+	 * Remove every finger pointing to a node that has been found unreachable
+	 * @param id
+	 */
+	public synchronized void removeNode(BigInteger id) {
+		for(int i=0; i<fingers.length; i++) {
+			if(fingers[i] != null && fingers[i].getNodeID().equals(id))
+				fingers[i] = null;
+		}
+		rebuild();
+	}
+	
+	public synchronized List<NodeRef> getFingers() {
+		List<NodeRef> list = new ArrayList<NodeRef>();
+		for(NodeRef finger : fingers) {
+			if(finger != null)
+				list.add(finger);
+		}
+		return list;
+	}
+	
+	/**
+	 * 
+	 * @param keyid
+	 * @return the finger that most closely precedes keyid, i.e. the member of {nodeID+1,...,keyid-1} 
+	 * farthest from this node, or null if there is none
+	 */
+	public NodeRef closestPrecedingNode(BigInteger keyid) {
+		return closestPrecedingNode(RingId.of(keyid));
+	}
+	
+	public NodeRef closestPrecedingNode(RingId keyid) {
+		
+		Snapshot current = snapshot;
+		
+		// binary search for the last entry strictly closer than the key - the distance of the key is compared in 
+		// place, a routing decision allocates nothing
+		int last = -1;
+		int low = 0, high = current.distances.length - 1;
+		while(low <= high) {
+			int mid = (low + high) >>> 1;
+			if(keyid.compareDistance(ringID, current.distances[mid]) > 0) {
+				last = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		
+		if(last < 0)
+			return null;
+		
+		return current.ordered[last];
+	}
+	
+	
+	private void rebuild() {
+		
+		List<NodeRef> distinct = new ArrayList<NodeRef>();
+		for(NodeRef finger : fingers) {
+			if(finger != null && !finger.getNodeID().equals(nodeID) && !distinct.contains(finger))
+				distinct.add(finger);
+		}
+		distinct.sort(Comparator.comparing(f -> f.getRingID().subtract(ringID)));
+		
+		NodeRef[] neworder = distinct.toArray(new NodeRef[0]);
+		RingId[] newdistances = new RingId[neworder.length];
+		for(int j=0; j<neworder.length; j++) {
+			newdistances[j] = neworder[j].getRingID().subtract(ringID);
+		}
+		
+		snapshot = new Snapshot(neworder, newdistances);		// publish the new order to readers
+	}
+	
+	private static class Snapshot {
+		private final NodeRef[] ordered;
+		private final RingId[] distances;				// distances[j] = clockwise distance from nodeID to ordered[j]
+		
+		private Snapshot(NodeRef[] ordered, RingId[] distances) {
+			this.ordered = ordered;
+			this.distances = distances;
+		}
+	}
+
+}
@@ -11,6 +11,8 @@ import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.registry.Registry;
 
+import no.hvl.dat110.chordoperations.IterativeLookup;
+import no.hvl.dat110.chordoperations.LookupResult;
 import no.hvl.dat110.node.NodeInformation;
 import no.hvl.dat110.rpc.interfaces.ChordNodeInterface;
 import no.hvl.dat110.util.Hash;
@@ -41,9 +43,12 @@ public class NodeClient {
 				ChordNodeInterface entryNode = (ChordNodeInterface) registry.lookup(haship);
 				
 				if(entryNode != null) {
-					ChordNodeInterface succOfentryNode = entryNode.findSuccessor(keyid);	// lookup the successor of entrynode recursively - remote calls
-					NodeInformation succInfo = new NodeInformation(succOfentryNode);		// print out info about this node - this is the node with the keyid
-					succInfo.printInfo();
+					LookupResult result = new IterativeLookup().lookup(entryNode, keyid);	// lookup the successor of keyid hop by hop from this client
+					if(result != null) {
+						System.out.println("Lookup finished in "+result.getHops()+" hops, "+result.getTotalLatency()/1000+" us");
+						NodeInformation succInfo = new NodeInformation(result.getOwner().resolve());	// print out info about this node - this is the node with the keyid
+						succInfo.printInfo();
+					}
 				}
 			}catch(RemoteException | NotBoundException e) {
 				e.printStackTrace();
@@ -9,6 +9,7 @@ import java.rmi.registry.Registry;
 import no.hvl.dat110.chordoperations.CheckPredecessor;
 import no.hvl.dat110.chordoperations.JoinRing;
 import no.hvl.dat110.chordoperations.LeaveRing;
+import no.hvl.dat110.chordoperations.MaintenanceScheduler;
 import no.hvl.dat110.chordoperations.StabilizeRing;
 import no.hvl.dat110.chordoperations.UpdateSuccessor;
 import no.hvl.dat110.file.FileManager;
@@ -35,6 +36,12 @@ public class ChordNodeContainer {
 	private ChordNodeInterface chordnode;
 	private long ttl;
 	private boolean loopforever;
+	private MaintenanceScheduler scheduler = new MaintenanceScheduler();
+	
+	// the stabilization protocols run every STABILIZE_MIN_PERIOD ms while the ring changes and back off 
+	// exponentially up to STABILIZE_MAX_PERIOD ms while it is stable
+	public static final long STABILIZE_MIN_PERIOD = 1000;
+	public static final long STABILIZE_MAX_PERIOD = 32000;
 	
 	public ChordNodeContainer(String nodename, long ttl, boolean loopforever) throws Exception {
 		this.nodename = nodename;
@@ -80,7 +87,7 @@ public class ChordNodeContainer {
 			
 		// print out info about the node periodically
 		NodeInformation nodeinfo = new NodeInformation(chordnode);
-		nodeinfo.start();
+		scheduler.schedule("nodeinfo", nodeinfo, 3000, 300);
 		
 		// create a local file and distribute to other nodes for cooperative mirroring
 		System.out.println("creating local file and distributing to existing nodes");
@@ -88,39 +95,51 @@ public class ChordNodeContainer {
 		fm.createLocalFile();
 		fm.createReplicaFiles(nodename);					// use the node's address as the file name
 		//fm.distributeReplicaFiles(); 						// send the files to the replicas once
-		fm.start(); 										// send the files to the replicas occasionally			
+		scheduler.schedule("filemanager", fm, 3000, 300); 	// send the files to the replicas occasionally			
 
 		/**
-		 *  Chord's stabilization protocols
+		 *  Chord's stabilization protocols - all run on the maintenance executor shared by the nodes of this JVM
+		 *  with adaptive periods. Churn seen by the node itself (new predecessor, unreachable successor) also 
+		 *  brings them back to the fast period
 		 */
+		((Node) chordnode).setChurnListener(scheduler::onChurn);
 		
-		// Schedule updateSuccessor => run this thread periodically to set the first successor pointer to the correct node
-		UpdateSuccessor updatesucc = new UpdateSuccessor(chordnode);
-		updatesucc.start();
+		// Schedule updateSuccessor => run this task periodically to set the first successor pointer to the correct node
+		UpdateSuccessor updatesucc = new UpdateSuccessor((Node) chordnode);
+		scheduler.scheduleAdaptive("updatesuccessor", updatesucc, STABILIZE_MIN_PERIOD, STABILIZE_MAX_PERIOD, 100);
 		
-		// Scheduler to stabilize ring => we run this thread periodically to stabilize the ring
+		// Scheduler to stabilize ring => we run this task periodically to stabilize the ring
 		StabilizeRing stabilize = new StabilizeRing((Node) chordnode);
-		stabilize.start();
+		scheduler.scheduleAdaptive("stabilizering", stabilize, STABILIZE_MIN_PERIOD, STABILIZE_MAX_PERIOD, 100);
 		
 		// Scheduler to update fingers => schedule updateFinger to run periodically
-		FixFingerTable updatefingers = new FixFingerTable(chordnode);
-		updatefingers.start();
+		FixFingerTable updatefingers = new FixFingerTable((Node) chordnode);
+		scheduler.scheduleAdaptive("fixfingertable", updatefingers, STABILIZE_MIN_PERIOD, STABILIZE_MAX_PERIOD, 100);
 		
 		// Scheduler to check predecessor => schedule check predecessor to run periodically
 		CheckPredecessor checkpred = new CheckPredecessor((Node) chordnode);
-		checkpred.start();
+		scheduler.scheduleAdaptive("checkpredecessor", checkpred, STABILIZE_MIN_PERIOD, STABILIZE_MAX_PERIOD, 100);
 		
-		// leave the ring after ttl secs
-		LeaveRing leavering = new LeaveRing(chordnode, ttl, loopforever);
-		leavering.start();
+		// drop the lock grants whose coordinator neither released nor renewed them within a lease period
+		Node node = (Node) chordnode;
+		scheduler.schedule("leaseexpiry", node::expireLeases, Node.LEASE_PERIOD/2, 100);
 		
-		nodeinfo.join();
-		fm.join();
-		updatesucc.join();
-		stabilize.join();
-		updatefingers.join();
-		checkpred.join();
-		leavering.join();
+		// leave the ring after ttl ms
+		if(!loopforever) {
+			LeaveRing leavering = new LeaveRing(chordnode);
+			scheduler.scheduleOnce("leavering", leavering, ttl);
+		}
+	}
+	
+	public MaintenanceScheduler getScheduler() {
+		return scheduler;
+	}
+	
+	/**
+	 * Stop the maintenance tasks of this node. The node stays bound in the registry
+	 */
+	public void stop() {
+		scheduler.cancel();
 	}
 	
 	public static void main(String[] args) throws InterruptedException, IOException {
@@ -13,4 +13,7 @@ public class StaticTracker {
 	//public static String[] ACTIVENODES = {"158.37.71.32"};	// we will implement this as tracker
 	public static final int PORT = 9091;
 	public static final int N = 4;			// number of times a file should be replicated
+	public static final String HASH_FUNCTION = "MD5";		// hash function of the ring: MD5 or MURMUR3. All nodes must use the same
+	public static final int SUCCESSORS = 3;			// length of the successor list kept by each node for failover
+	public static final boolean ITERATIVE_LOOKUP = true;	// findSuccessor is driven by the caller (true) or recursive remote calls (false)
 }
@@ -9,11 +9,17 @@ package no.hvl.dat110.rpc.interfaces;
 import java.math.BigInteger;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
 
+import no.hvl.dat110.node.LookupStep;
 import no.hvl.dat110.node.Message;
+import no.hvl.dat110.node.NodeRef;
+import no.hvl.dat110.node.RingState;
+import no.hvl.dat110.util.RingId;
 
 public interface ChordNodeInterface extends Remote, MutexInterface {
 	
@@ -24,17 +30,25 @@ public interface ChordNodeInterface extends Remote, MutexInterface {
 	public String getNodeIP() throws RemoteException;
 
 	public void setNodeIP(String nodeIP) throws RemoteException;
+	
+	public String getHashFunction() throws RemoteException;
 
 	public ChordNodeInterface getSuccessor() throws RemoteException;
 	
+	public NodeRef getSuccessorRef() throws RemoteException;
+	
 	public void setSuccessor(ChordNodeInterface successor) throws RemoteException;
 	
 	public ChordNodeInterface getPredecessor() throws RemoteException;
 	
+	public NodeRef getPredecessorRef() throws RemoteException;
+	
 	public void setPredecessor(ChordNodeInterface predecessor) throws RemoteException;
 	
 	public List<ChordNodeInterface> getFingerTable() throws RemoteException;
 	
+	public List<NodeRef> getFingerRefs() throws RemoteException;
+	
 	public void addToFingerTable(ChordNodeInterface finger) throws RemoteException;
 	
 	public void removeFromFingerTable(ChordNodeInterface finger) throws RemoteException;
@@ -47,12 +61,39 @@ public interface ChordNodeInterface extends Remote, MutexInterface {
 	
 	public void removeFromFileKey(BigInteger fileKey) throws RemoteException;
 	
+	public boolean hasFileKey(BigInteger fileKey) throws RemoteException;
+	
+	public List<BigInteger> getFileKeys(BigInteger after, int limit) throws RemoteException;
+	
 	public ChordNodeInterface findSuccessor(BigInteger keyID) throws RemoteException;
 	
+	public NodeRef findSuccessorRef(BigInteger keyID) throws RemoteException;
+	
+	public List<NodeRef> findSuccessorRefs(BigInteger keyID) throws RemoteException;
+	
+	public Map<BigInteger, List<NodeRef>> findSuccessors(Collection<BigInteger> keyIDs) throws RemoteException;
+	
+	// the keys of a lookup travel as ring ids - converted once by the caller, not at every hop
+	public LookupStep findNextHop(RingId keyID) throws RemoteException;
+	
+	public Map<RingId, LookupStep> findNextHops(Collection<RingId> keyIDs) throws RemoteException;
+	
 	public void notifySuccessor(ChordNodeInterface node) throws RemoteException;
 	
+	public void notifySuccessor(NodeRef node) throws RemoteException;
+	
+	public RingState getRingState(boolean withFingers) throws RemoteException;
+	
 	public Map<BigInteger, Message> getFilesMetadata() throws RemoteException;
 	
+	public Message getFileMetadata(BigInteger fileID) throws RemoteException;
+	
+	public Map<BigInteger, Message> getFilesMetadata(Collection<BigInteger> fileIDs) throws RemoteException;
+	
+	public SortedMap<BigInteger, Message> getFilesMetadataPage(BigInteger after, int limit) throws RemoteException;
+	
+	public void updateFileMetadata(Message message) throws RemoteException;
+	
 	public void createFileInNodeLocalDirectory(String srcfile, BigInteger destID) throws RemoteException;
 	
 }
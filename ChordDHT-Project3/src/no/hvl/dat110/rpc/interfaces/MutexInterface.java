@@ -1,35 +1,74 @@
 package no.hvl.dat110.rpc.interfaces;
 
+import java.math.BigInteger;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.util.Set;
 
 import no.hvl.dat110.node.Message;
+import no.hvl.dat110.node.Quorum;
 
 public interface MutexInterface extends Remote {
 	
 	public Message onMessageReceived(Message message) throws RemoteException;
 	
-	public boolean majorityAcknowledged() throws RemoteException;
-	
 	public void incrementclock() throws RemoteException;
 	
-	public boolean requestWriteOperation(Message message) throws RemoteException;
+	/**
+	 * Request with the voters of this request - concurrent requests of the node may be for other files, so the
+	 * voters travel with each call instead of being kept on the node
+	 */
+	public boolean requestWriteOperation(Message message, Set<Message> replicas) throws RemoteException;
+	
+	public boolean requestReadOperation(Message message, Set<Message> replicas) throws RemoteException;
+	
+	/**
+	 * The acquire methods return false if the lock is still held by someone else after one lease period
+	 */
+	public boolean acquireLock() throws RemoteException;
 	
-	public boolean requestReadOperation(Message message) throws RemoteException;
+	public boolean acquireLock(BigInteger fileID) throws RemoteException;
 	
-	public void acquireLock() throws RemoteException;
+	public boolean acquireLock(BigInteger fileID, BigInteger holder) throws RemoteException;
 	
 	public void releaseLocks() throws RemoteException;
 	
+	public boolean acquireReadLock(BigInteger fileID) throws RemoteException;
+	
+	public boolean acquireReadLock(BigInteger fileID, BigInteger holder) throws RemoteException;
+	
+	public void releaseLocks(BigInteger fileID) throws RemoteException;
+	
+	public void releaseLocks(BigInteger fileID, BigInteger holder) throws RemoteException;
+	
+	public boolean renewLeases(BigInteger fileID, BigInteger holder) throws RemoteException;
+	
+	public int multicastRenewLeases(Message message, Set<Message> replicas) throws RemoteException;
+	
+	public int expireLeases() throws RemoteException;
+	
+	public long getExpiredLeases() throws RemoteException;
+	
+	public void setQuorum(BigInteger fileID, Quorum quorum) throws RemoteException;
+	
+	public Quorum getQuorum(BigInteger fileID) throws RemoteException;
+	
 	public void onReceivedVotersDecision(Message message) throws RemoteException;
+	
+	public void onReceivedVote(Message message) throws RemoteException;
+	
+	public void onReceivedInquire(Message message) throws RemoteException;
+	
+	public void onReceivedRelinquish(Message message) throws RemoteException;
 
-	public void multicastUpdateOrReadReleaseLockOperation(Message message) throws RemoteException;
+	public int multicastUpdateOrReadReleaseLockOperation(Message message, Set<Message> replicas) throws RemoteException;
 
-	public void multicastVotersDecision(Message message) throws RemoteException;
+	public void multicastVotersDecision(Message message, Set<Message> replicas) throws RemoteException;
 
 	public void onReceivedUpdateOperation(Message message) throws RemoteException;
 	
-	public void setActiveNodesForFile(Set<Message> messages) throws RemoteException;
+	public void onReceivedCommit(Message message) throws RemoteException;
+	
+	public int multicastCommit(Message message, Set<Message> replicas) throws RemoteException;
 
 }
@@ -6,14 +6,12 @@ package no.hvl.dat110.util;
  *
  */
 
-import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.charset.StandardCharsets;
 
-import javax.xml.bind.DatatypeConverter;
+import no.hvl.dat110.rpc.StaticTracker;
 
 
 
@@ -21,38 +19,64 @@ import javax.xml.bind.DatatypeConverter;
 
 public class Hash {
 	
-	public static int mbit = 4;			// using SHA-1 compresses/hashes to 160bits	
+	public static final int mbit = 128;		// number of bits used by the hash function (all hash functions compress/hash to 128bits)
 	
 	public static int sbit = 4;			// we use this for the size of the finger table
 	
-	private static BigInteger hashint;
+	private static final BigInteger addresssize = BigInteger.ONE.shiftLeft(mbit);		// 2^mbit
+	
+	// chosen once for the ring - see StaticTracker.HASH_FUNCTION
+	private static final HashFunction function = forName(StaticTracker.HASH_FUNCTION);
+	
+	public static HashFunction forName(String name) {
+		
+		switch(name) {
+			case MD5Hash.NAME: return new MD5Hash();
+			case Murmur3Hash.NAME: return new Murmur3Hash();
+			default: throw new IllegalArgumentException("Unknown hash function: "+name);
+		}
+	}
+	
+	public static String getHashFunctionName() {
+		
+		return function.getName();
+	}
 	
 	public static BigInteger hashOf(String entity) {		
 		
-		try {
-			MessageDigest md = MessageDigest.getInstance("MD5");
-			
-			byte[] digest = md.digest(entity.getBytes("utf8"));
-			
-			mbit = digest.length*8;			// number of bits used by the hash function
-			
-			// use DatatypeConverter
-			String hashvalue = DatatypeConverter.printHexBinary(digest);
-			
-			hashint = new BigInteger(hashvalue, 16);
-
-			
-		} catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
-			
-			e.printStackTrace();
+		return new BigInteger(1, digest(entity));			// the digest bytes are the unsigned identifier
+	}
+	
+	public static RingId ringIdOf(String entity) {
+		
+		return RingId.fromBytes(digest(entity));
+	}
+	
+	/**
+	 * Hash the names of the n replicas of a file i.e. filename + 0,...,filename + (n-1)
+	 * @param filename
+	 * @param n
+	 * @return the identifiers of the replicas in order
+	 */
+	public static BigInteger[] hashOf(String filename, int n) {
+		
+		byte[] prefix = filename.getBytes(StandardCharsets.UTF_8);		// encode the common prefix once
+		
+		BigInteger[] ids = new BigInteger[n];
+		for(int i=0; i<n; i++) {
+			byte[] suffix = Integer.toString(i).getBytes(StandardCharsets.UTF_8);
+			byte[] name = new byte[prefix.length + suffix.length];
+			System.arraycopy(prefix, 0, name, 0, prefix.length);
+			System.arraycopy(suffix, 0, name, prefix.length, suffix.length);
+			ids[i] = new BigInteger(1, function.hash(name));
 		}
 		
-		return hashint;
+		return ids;
 	}
 	
-	public static BigInteger getHashInt() {
+	private static byte[] digest(String entity) {
 		
-		return hashint;
+		return function.hash(entity.getBytes(StandardCharsets.UTF_8));
 	}
 	
 	/*public static BigInteger customHash(String entity) {
@@ -80,10 +104,7 @@ public class Hash {
 	
 	public static BigInteger addressSize() {
 		
-		BigInteger modulos = new BigInteger("2");
-		modulos = modulos.pow(mbit);				// 2^mbit
-		
-		return modulos;
+		return addresssize;
 	}
 	
 	public static void main(String[] args) throws UnknownHostException {
@@ -0,0 +1,116 @@
+package no.hvl.dat110.util;
+
+/**
+ * exercise/demo purpose in dat110
+ * @author tdoy
+ *
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class HashBenchmark {
+	
+	/**
+	 * Compares the hash functions that can be used for the ring:
+	 * - throughput: hashes per second over a set of file names
+	 * - uniformity: chi-square of the identifiers over equal-sized buckets of the identifier space
+	 * - placement: number of keys per node on a simulated ring (each key is stored at its successor)
+	 */
+	
+	private static final int KEYS = 1_000_000;
+	private static final int BUCKETS = 1024;
+	private static final int NODES = 100;
+	private static final int ROUNDS = 5;
+	
+	private static volatile long blackhole;			// keeps the JIT from removing the hash calls
+	
+	public static void main(String[] args) {
+		
+		HashFunction[] functions = {new MD5Hash(), new Murmur3Hash()};
+		
+		byte[][] keys = new byte[KEYS][];
+		for(int i=0; i<KEYS; i++) {
+			keys[i] = ("process"+(i % NODES)+"file"+i).getBytes(StandardCharsets.UTF_8);
+		}
+		
+		for(HashFunction function : functions) {
+			System.out.println("==================================");
+			System.out.println("Hash function = "+function.getName());
+			throughput(function, keys);
+			uniformity(function, keys);
+			placement(function, keys);
+		}
+		System.out.println("==================================");
+	}
+	
+	private static void throughput(HashFunction function, byte[][] keys) {
+		
+		long sink = 0;
+		for(byte[] key : keys) {						// warm up
+			sink += function.hash(key)[0];
+		}
+		
+		long best = Long.MAX_VALUE;
+		for(int r=0; r<ROUNDS; r++) {
+			long begin = System.nanoTime();
+			for(byte[] key : keys) {
+				sink += function.hash(key)[0];
+			}
+			best = Math.min(best, System.nanoTime() - begin);
+		}
+		
+		blackhole = sink;
+		
+		System.out.printf("Throughput = %.0f hashes/s (best of %d rounds, %d keys)%n", 
+				keys.length / (best / 1e9), ROUNDS, keys.length);
+	}
+	
+	private static void uniformity(HashFunction function, byte[][] keys) {
+		
+		long[] counts = new long[BUCKETS];
+		int shift = 64 - Integer.numberOfTrailingZeros(BUCKETS);
+		for(byte[] key : keys) {
+			RingId id = RingId.fromBytes(function.hash(key));
+			counts[(int) (id.getHigh() >>> shift)]++;			// bucket = top bits of the identifier
+		}
+		
+		double expected = (double) keys.length / BUCKETS;
+		double chisquare = 0;
+		for(long count : counts) {
+			chisquare += (count - expected) * (count - expected) / expected;
+		}
+		
+		System.out.printf("Chi-square over %d buckets = %.1f (expected about %d for a uniform hash)%n", 
+				BUCKETS, chisquare, BUCKETS - 1);
+	}
+	
+	private static void placement(HashFunction function, byte[][] keys) {
+		
+		RingId[] nodes = new RingId[NODES];
+		for(int i=0; i<NODES; i++) {
+			nodes[i] = RingId.fromBytes(function.hash(("process"+(i+1)).getBytes(StandardCharsets.UTF_8)));
+		}
+		Arrays.sort(nodes);
+		
+		long[] load = new long[NODES];
+		for(byte[] key : keys) {
+			RingId id = RingId.fromBytes(function.hash(key));
+			int pos = Arrays.binarySearch(nodes, id);
+			int succ = pos >= 0 ? pos : -pos - 1;
+			load[succ % NODES]++;								// the successor of the key stores it
+		}
+		
+		double mean = (double) keys.length / NODES;
+		double variance = 0;
+		long max = 0;
+		for(long l : load) {
+			variance += (l - mean) * (l - mean) / NODES;
+			max = Math.max(max, l);
+		}
+		
+		System.out.printf("Ring of %d nodes: max/mean load = %.2f, stddev/mean = %.2f%n", 
+				NODES, max / mean, Math.sqrt(variance) / mean);
+	}
+
+}
@@ -0,0 +1,22 @@
+package no.hvl.dat110.util;
+
+/**
+ * exercise/demo purpose in dat110
+ * @author tdoy
+ *
+ */
+
+public interface HashFunction {
+	
+	/**
+	 * @return the name recorded for the ring - nodes using different hash functions can't join the same ring
+	 */
+	public String getName();
+	
+	/**
+	 * @param data
+	 * @return a 128-bit (16 bytes) digest of data. Implementations must be safe to call from several threads
+	 */
+	public byte[] hash(byte[] data);
+
+}
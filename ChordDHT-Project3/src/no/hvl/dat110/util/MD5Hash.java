@@ -0,0 +1,35 @@
+package no.hvl.dat110.util;
+
+/**
+ * exercise/demo purpose in dat110
+ * @author tdoy
+ *
+ */
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public class MD5Hash implements HashFunction {
+	
+	public static final String NAME = "MD5";
+	
+	// MessageDigest is not thread-safe - every thread gets its own instance
+	private static final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	});
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public byte[] hash(byte[] data) {
+		return digests.get().digest(data);
+	}
+
+}
@@ -0,0 +1,109 @@
+package no.hvl.dat110.util;
+
+/**
+ * exercise/demo purpose in dat110
+ * @author tdoy
+ *
+ */
+
+public class Murmur3Hash implements HashFunction {
+	
+	/**
+	 * MurmurHash3 x64 128-bit (Austin Appleby, public domain). Not cryptographic, but the identifiers only need 
+	 * to be spread uniformly over the ring. It is stateless and therefore thread-safe.
+	 */
+	
+	public static final String NAME = "MURMUR3";
+	
+	private static final long C1 = 0x87c37b91114253d5L;
+	private static final long C2 = 0x4cf5ad432745937fL;
+	
+	private long seed;
+	
+	public Murmur3Hash() {
+		this(0);
+	}
+	
+	public Murmur3Hash(long seed) {
+		this.seed = seed;
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public byte[] hash(byte[] data) {
+		
+		long h1 = seed;
+		long h2 = seed;
+		int len = data.length;
+		int nblocks = len / 16;
+		
+		// body - 16 bytes at a time
+		for(int i=0; i<nblocks; i++) {
+			long k1 = getLong(data, i*16);
+			long k2 = getLong(data, i*16 + 8);
+			
+			k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+			h1 = Long.rotateLeft(h1, 27); h1 += h2; h1 = h1*5 + 0x52dce729;
+			
+			k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+			h2 = Long.rotateLeft(h2, 31); h2 += h1; h2 = h2*5 + 0x38495ab5;
+		}
+		
+		// tail - the remaining 0 to 15 bytes
+		int tail = nblocks * 16;
+		int rest = len & 15;
+		long k1 = 0;
+		long k2 = 0;
+		for(int i=rest-1; i>=8; i--) {
+			k2 ^= (long) (data[tail + i] & 0xff) << (8 * (i - 8));
+		}
+		if(rest > 8) {
+			k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+		}
+		for(int i=Math.min(rest, 8)-1; i>=0; i--) {
+			k1 ^= (long) (data[tail + i] & 0xff) << (8 * i);
+		}
+		if(rest > 0) {
+			k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+		}
+		
+		// finalization
+		h1 ^= len;
+		h2 ^= len;
+		h1 += h2;
+		h2 += h1;
+		h1 = fmix(h1);
+		h2 = fmix(h2);
+		h1 += h2;
+		h2 += h1;
+		
+		byte[] digest = new byte[16];
+		for(int i=0; i<8; i++) {
+			digest[i] = (byte) (h1 >>> (8 * i));				// little-endian h1 then h2, as the reference implementation
+			digest[i + 8] = (byte) (h2 >>> (8 * i));
+		}
+		return digest;
+	}
+	
+	private static long getLong(byte[] data, int offset) {
+		long value = 0;
+		for(int i=7; i>=0; i--) {
+			value = (value << 8) | (data[offset + i] & 0xff);		// little-endian
+		}
+		return value;
+	}
+	
+	private static long fmix(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+
+}
@@ -0,0 +1,169 @@
+package no.hvl.dat110.util;
+
+/**
+ * exercise/demo purpose in dat110
+ * @author tdoy
+ *
+ */
+
+import java.io.Serializable;
+import java.math.BigInteger;
+
+public final class RingId implements Comparable<RingId>, Serializable {
+	
+	/**
+	 * An identifier on the ring 0,...,2^128-1 kept in two longs (unsigned). Arithmetic wraps around at 2^128, 
+	 * which is the modulo operation of the address space. The interval checks make no allocations.
+	 */
+	
+	private static final long serialVersionUID = 1L;
+	
+	public static final int BITS = 128;
+	public static final RingId ZERO = new RingId(0L, 0L);
+	public static final RingId ONE = new RingId(0L, 1L);
+	
+	private final long hi;			// upper 64 bits
+	private final long lo;			// lower 64 bits
+	
+	public RingId(long hi, long lo) {
+		this.hi = hi;
+		this.lo = lo;
+	}
+	
+	public static RingId of(BigInteger id) {
+		return new RingId(id.shiftRight(64).longValue(), id.longValue());		// low 128 bits = id mod 2^128
+	}
+	
+	/**
+	 * @param bytes big-endian, at most 16 bytes are used (the first ones)
+	 */
+	public static RingId fromBytes(byte[] bytes) {
+		long hi = 0, lo = 0;
+		int n = Math.min(bytes.length, 16);
+		for(int i=0; i<n; i++) {
+			if(i < 8)
+				hi = (hi << 8) | (bytes[i] & 0xff);
+			else
+				lo = (lo << 8) | (bytes[i] & 0xff);
+		}
+		if(n <= 8) {											// shorter digests are taken as the low bits
+			lo = hi;
+			hi = 0;
+		} else if(n < 16) {
+			int shift = (n - 8) * 8;							// number of bits read into lo
+			lo = (hi << shift) | lo;
+			hi = hi >>> (64 - shift);
+		}
+		return new RingId(hi, lo);
+	}
+	
+	public BigInteger toBigInteger() {
+		byte[] bytes = new byte[16];
+		for(int i=0; i<8; i++) {
+			bytes[i] = (byte) (hi >>> (56 - 8*i));
+			bytes[i+8] = (byte) (lo >>> (56 - 8*i));
+		}
+		return new BigInteger(1, bytes);
+	}
+	
+	public long getHigh() {
+		return hi;
+	}
+	
+	public long getLow() {
+		return lo;
+	}
+	
+	// (this + other) mod 2^128
+	public RingId add(RingId other) {
+		long nlo = lo + other.lo;
+		long carry = Long.compareUnsigned(nlo, lo) < 0 ? 1 : 0;
+		return new RingId(hi + other.hi + carry, nlo);
+	}
+	
+	// (this - other) mod 2^128 - i.e. the clockwise distance from other to this
+	public RingId subtract(RingId other) {
+		long borrow = Long.compareUnsigned(lo, other.lo) < 0 ? 1 : 0;
+		return new RingId(hi - other.hi - borrow, lo - other.lo);
+	}
+	
+	/**
+	 * Compare the clockwise distance from origin to this id with distance - subtract(origin).compareTo(distance)
+	 * without the allocation
+	 */
+	public int compareDistance(RingId origin, RingId distance) {
+		long borrow = Long.compareUnsigned(lo, origin.lo) < 0 ? 1 : 0;
+		int c = Long.compareUnsigned(hi - origin.hi - borrow, distance.hi);
+		return c != 0 ? c : Long.compareUnsigned(lo - origin.lo, distance.lo);
+	}
+	
+	// (this + 2^i) mod 2^128
+	public RingId addPowerOfTwo(int i) {
+		if(i < 64)
+			return add(new RingId(0L, 1L << i));
+		return new RingId(hi + (1L << (i - 64)), lo);
+	}
+	
+	/**
+	 * @return true if this id is a member of the set {lower+1,...,upper} on the ring. (x, x] is the whole ring
+	 */
+	public boolean inOpenClosed(RingId lower, RingId upper) {
+		int bounds = lower.compareTo(upper);
+		if(bounds < 0)
+			return compareTo(lower) > 0 && compareTo(upper) <= 0;
+		if(bounds > 0)
+			return compareTo(lower) > 0 || compareTo(upper) <= 0;			// the set wraps around 0
+		return true;
+	}
+	
+	/**
+	 * @return true if this id is a member of the set {lower+1,...,upper-1} on the ring. (x, x) is the ring without x
+	 */
+	public boolean inOpen(RingId lower, RingId upper) {
+		int bounds = lower.compareTo(upper);
+		if(bounds < 0)
+			return compareTo(lower) > 0 && compareTo(upper) < 0;
+		if(bounds > 0)
+			return compareTo(lower) > 0 || compareTo(upper) < 0;
+		return !equals(lower);
+	}
+	
+	/**
+	 * @return true if this id is a member of the set {lower,...,upper} on the ring. [x, x] is x only
+	 */
+	public boolean inClosed(RingId lower, RingId upper) {
+		int bounds = lower.compareTo(upper);
+		if(bounds < 0)
+			return compareTo(lower) >= 0 && compareTo(upper) <= 0;
+		if(bounds > 0)
+			return compareTo(lower) >= 0 || compareTo(upper) <= 0;
+		return equals(lower);
+	}
+	
+	@Override
+	public int compareTo(RingId other) {
+		int c = Long.compareUnsigned(hi, other.hi);
+		return c != 0 ? c : Long.compareUnsigned(lo, other.lo);
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if(this == obj)
+			return true;
+		if(!(obj instanceof RingId))
+			return false;
+		RingId other = (RingId) obj;
+		return hi == other.hi && lo == other.lo;
+	}
+	
+	@Override
+	public int hashCode() {
+		return Long.hashCode(hi) * 31 + Long.hashCode(lo);
+	}
+	
+	@Override
+	public String toString() {
+		return toBigInteger().toString();
+	}
+
+}
@@ -0,0 +1,51 @@
+package no.hvl.dat110.util;
+
+/**
+ * exercise/demo purpose in dat110
+ * @author tdoy
+ *
+ */
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class StubCache<K, V> {
+	
+	// bounded cache of resolved remote references - the least recently used entry is evicted when full
+	
+	private int capacity;
+	private Map<K, V> entries;
+	
+	public StubCache(int capacity) {
+		this.capacity = capacity;
+		this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				return size() > StubCache.this.capacity;
+			}
+		};
+	}
+	
+	public synchronized V get(K key) {
+		return entries.get(key);
+	}
+	
+	public synchronized void put(K key, V value) {
+		entries.put(key, value);
+	}
+	
+	public synchronized void invalidate(K key) {
+		entries.remove(key);
+	}
+	
+	public synchronized int size() {
+		return entries.size();
+	}
+	
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+}
@@ -19,6 +19,7 @@ import java.rmi.registry.Registry;
 import java.util.ArrayList;
 import java.util.List;
 
+import no.hvl.dat110.node.NodeRef;
 import no.hvl.dat110.rpc.StaticTracker;
 import no.hvl.dat110.rpc.interfaces.ChordNodeInterface;
 
@@ -26,13 +27,23 @@ public class Util {
 	
 	public static String activeIP = null;
 	
+	public static final int STUB_CACHE_SIZE = 256;		// max number of registries and node stubs kept per JVM
+	public static final int PAGE_SIZE = 64;				// max number of entries per remote call when listing the files of a node
+	
+	private static final StubCache<String, Registry> registries = new StubCache<String, Registry>(STUB_CACHE_SIZE);
+	private static final StubCache<BigInteger, ChordNodeInterface> stubs = new StubCache<BigInteger, ChordNodeInterface>(STUB_CACHE_SIZE);
+	
 	public static Registry locateRegistry(String ipaddress) {
 
-		java.rmi.registry.Registry registry = null;
+		java.rmi.registry.Registry registry = registries.get(ipaddress);
+		if(registry != null)
+			return registry;
+		
 		try {
 			//registry = LocateRegistry.getRegistry(ipaddress, StaticTracker.PORT);
 			registry = LocateRegistry.getRegistry(StaticTracker.PORT);
 			registry.list();
+			registries.put(ipaddress, registry);
 		} catch (RemoteException e) {
 			registry = null;
 		}
@@ -40,39 +51,81 @@ public class Util {
 		return registry;
 	}
 	
-	
-	public static boolean computeLogic(BigInteger id, BigInteger lower, BigInteger upper) {
+	/**
+	 * Resolve the stub of a node, using the cache when possible
+	 * @param nodeID
+	 * @param ipaddress
+	 * @return the remote stub or null if the node can't be reached
+	 */
+	public static ChordNodeInterface lookupNode(BigInteger nodeID, String ipaddress) {
 		
-		// a formula to check whether an id falls within the set {lower, upper} using the address size as our bound (modulos operation)
-		// it modifies 'upper' and 'id' when lower > upper e.g. set (6, 2) in mod 10 = {6, 7, 8, 9, 0, 1, 2}
+		ChordNodeInterface nodestub = stubs.get(nodeID);
+		if(nodestub != null)
+			return nodestub;
 		
-		boolean cond = false;
-		BigInteger nupper = upper;
-		BigInteger addresssize = Hash.addressSize();
-		if (lower.compareTo(upper)==1) {
-			nupper = upper.add(addresssize);
-			
-			if((id.compareTo(new BigInteger("0"))==1 || id.compareTo(new BigInteger("0"))==0) && 
-					((id.compareTo(upper)==-1 || id.compareTo(upper)==0))) {
-				id = id.add(addresssize);
-			}
+		Registry registry = locateRegistry(ipaddress);
+		if(registry == null)
+			return null;
+		
+		try {
+			nodestub = (ChordNodeInterface) registry.lookup(nodeID.toString());
+		} catch (RemoteException e) {
+			registries.invalidate(ipaddress);			// the registry itself is gone
+			return null;
+		} catch (NotBoundException e) {
+			return null;
 		}
 		
-		upper = nupper;
-		cond = (id.compareTo(lower)==1 || id.compareTo(lower)==0) && (id.compareTo(upper)==-1 || id.compareTo(upper)==0);
+		stubs.put(nodeID, nodestub);
+		return nodestub;
+	}
+	
+	/**
+	 * Drop the cached stub of a node after a remote call to it has failed
+	 * @param nodeID
+	 */
+	public static void invalidateNode(BigInteger nodeID) {
+		if(nodeID != null)
+			stubs.invalidate(nodeID);
+	}
+	
+	
+	public static boolean computeLogic(BigInteger id, BigInteger lower, BigInteger upper) {
+		
+		// a formula to check whether an id falls within the set {lower, upper} using the address size as our bound (modulos operation)
+		// the set wraps around when lower > upper e.g. set (6, 2) in mod 10 = {6, 7, 8, 9, 0, 1, 2}
+		// callers on the hot path should keep RingId values and use RingId.inClosed/inOpen/inOpenClosed directly
 		
-		return cond;
+		return RingId.of(id).inClosed(RingId.of(lower), RingId.of(upper));
 	}
 	
-	public static List<String> toString(List<ChordNodeInterface> fingers) throws RemoteException {
+	public static List<String> toString(List<NodeRef> fingers) {
 		List<String> fingerstr = new ArrayList<String>();
 		for(int i=0; i<fingers.size(); i++) {
-			fingerstr.add(fingers.get(i).getNodeIP());
+			fingerstr.add(fingers.get(i).getNodeIP());		// the address travels with the reference - no remote call
 		}
 		
 		return fingerstr;
 	}
 	
+	/**
+	 * All the file keys of a node, fetched page by page
+	 * @param node
+	 * @return the keys in key order
+	 * @throws RemoteException
+	 */
+	public static List<BigInteger> getFileKeys(ChordNodeInterface node) throws RemoteException {
+		List<BigInteger> keys = new ArrayList<BigInteger>();
+		List<BigInteger> page = node.getFileKeys(null, PAGE_SIZE);
+		while(!page.isEmpty()) {
+			keys.addAll(page);
+			if(page.size() < PAGE_SIZE)
+				break;
+			page = node.getFileKeys(page.get(page.size()-1), PAGE_SIZE);		// continue after the last key of this page
+		}
+		return keys;
+	}
+	
 	public static Registry tryIPs() {
 		
 		// try the tracker IP addresses and connect to any one available
@@ -97,16 +150,12 @@ public class Util {
 			return null;
 		
 		ChordNodeInterface nodestub = null;
-		Registry registry = null;
 		try {
-			registry = locateRegistry(node.getNodeIP());		
-			
-			if(registry == null) {
-				return null;
-			}
-			
-			nodestub = (ChordNodeInterface) registry.lookup(node.getNodeID().toString());	// remote stub
-		} catch (NotBoundException | RemoteException e) {
+			BigInteger nodeID = node.getNodeID();			// a remote call - fails if the node has left the ring
+			nodestub = stubs.get(nodeID);
+			if(nodestub == null)
+				nodestub = lookupNode(nodeID, node.getNodeIP());	// remote stub
+		} catch (RemoteException e) {
 			return null;			// if this call fails, then treat the node to have left the ring...or unavailable
 		}
 		
@@ -0,0 +1,51 @@
+package no.hvl.dat110.clients.test;
+
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import no.hvl.dat110.mutexprocess.CSLock;
+import no.hvl.dat110.mutexprocess.OperationType;
+
+
+class TestCSLockAcquirePass {
+
+	private static final long LEASE_PERIOD = 10000;
+
+	// GOAL: acquire never takes the lock from someone else - a second writer is refused and the first keeps it
+	@Test
+	void secondWriterRefused() {
+
+		CSLock cs = new CSLock(LEASE_PERIOD);
+		Assertions.assertTrue(cs.acquire("process1", 1, OperationType.WRITE));
+		Assertions.assertFalse(cs.acquire("process2", 2, OperationType.WRITE));
+		Assertions.assertFalse(cs.acquire("process2", 2, OperationType.READ));
+		Assertions.assertEquals("process1", cs.getHolder());
+
+		Assertions.assertTrue(cs.acquire("process1", 3, OperationType.WRITE));		// the holder itself may
+
+		cs.release("process1");
+		Assertions.assertTrue(cs.acquire("process2", 4, OperationType.WRITE));
+		Assertions.assertEquals("process2", cs.getHolder());
+	}
+
+	// GOAL: readers share the lock, and a writer is refused while any other reader holds it
+	@Test
+	void writerRefusedByReaders() {
+
+		CSLock cs = new CSLock(LEASE_PERIOD);
+		Assertions.assertTrue(cs.acquire("process1", 1, OperationType.READ));
+		Assertions.assertTrue(cs.acquire("process2", 2, OperationType.READ));
+		Assertions.assertFalse(cs.acquire("process3", 3, OperationType.WRITE));
+		Assertions.assertEquals(2, cs.getReaders());
+		Assertions.assertNull(cs.getHolder());
+
+		cs.release("process1");
+		Assertions.assertFalse(cs.acquire("process2/1", 4, OperationType.WRITE));
+		Assertions.assertTrue(cs.acquire("process2", 5, OperationType.WRITE));		// upgrade of the only reader
+		cs.release("process2");
+		cs.release("process2");
+		Assertions.assertFalse(cs.isBusy());
+	}
+
+}
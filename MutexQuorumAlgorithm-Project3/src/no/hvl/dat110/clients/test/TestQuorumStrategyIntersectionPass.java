@@ -0,0 +1,59 @@
+package no.hvl.dat110.clients.test;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import no.hvl.dat110.mutexprocess.QuorumStrategy;
+
+
+class TestQuorumStrategyIntersectionPass {
+	
+	private static final int MAX_PROCESSES = 100;
+
+	@Test
+	void grid() {
+		check(QuorumStrategy.GRID);
+	}
+	
+	@Test
+	void projectivePlane() {
+		check(QuorumStrategy.PROJECTIVE_PLANE);
+	}
+	
+	// GOAL: two requests must never both be granted - any two quorums must share a process, for every number of
+	// processes, also when positions past the last process wrap around. And a quorum has about sqrt(N) processes
+	private void check(QuorumStrategy strategy) {
+		
+		for(int n = 1; n <= MAX_PROCESSES; n++) {
+			
+			List<String> members = new ArrayList<String>();
+			for(int i = 1; i <= n; i++)
+				members.add("process" + i);
+			
+			List<Set<String>> quorums = new ArrayList<Set<String>>();
+			for(String process : members) {
+				Set<String> quorum = new HashSet<String>(strategy.voters(process, members));
+				Assertions.assertTrue(quorum.contains(process), strategy + ", N = " + n + ": " + process + " is not in its own quorum");
+				Assertions.assertTrue(members.containsAll(quorum), strategy + ", N = " + n + ": quorum of " + process + " has unknown processes");
+				Assertions.assertTrue(quorum.size() <= 2 * (int) Math.ceil(Math.sqrt(n)) + 1, 
+						strategy + ", N = " + n + ": quorum of " + process + " has " + quorum.size() + " processes");
+				quorums.add(quorum);
+			}
+			
+			for(int i = 0; i < n; i++) {
+				for(int j = i + 1; j < n; j++) {
+					Assertions.assertFalse(Collections.disjoint(quorums.get(i), quorums.get(j)), 
+							strategy + ", N = " + n + ": quorums of " + members.get(i) + " and " + members.get(j) + " do not meet");
+				}
+			}
+		}
+	}
+
+}
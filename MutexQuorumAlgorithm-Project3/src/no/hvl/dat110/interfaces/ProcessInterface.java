@@ -5,6 +5,8 @@ import java.rmi.RemoteException;
 import java.util.List;
 
 import no.hvl.dat110.mutexprocess.Message;
+import no.hvl.dat110.mutexprocess.QuorumStrategy;
+import no.hvl.dat110.mutexprocess.Token;
 
 public interface ProcessInterface extends Remote {
 	
@@ -12,18 +14,49 @@ public interface ProcessInterface extends Remote {
 	
 	public Message onMessageReceived(Message message) throws RemoteException;
 	
-	public boolean majorityAcknowledged() throws RemoteException;
-	
 	public void incrementclock() throws RemoteException;
 	
 	public boolean requestWriteOperation(Message message) throws RemoteException;
 	
 	public boolean requestReadOperation(Message message) throws RemoteException;
 	
-	public void acquireLock() throws RemoteException;
+	/**
+	 * The acquire methods return false if the lock is still held by someone else after one lease period
+	 */
+	public boolean acquireLock() throws RemoteException;
+	
+	public boolean acquireReadLock() throws RemoteException;
+	
+	public boolean acquireLock(String holder) throws RemoteException;
+	
+	public boolean acquireReadLock(String holder) throws RemoteException;
 	
 	public void releaseLocks() throws RemoteException;
 	
+	public void releaseLock(String holder) throws RemoteException;
+	
+	public void releaseReadLock(String holder) throws RemoteException;
+	
+	public boolean renewLease(String holder) throws RemoteException;
+	
+	public int multicastRenewLeases(Message message) throws RemoteException;
+	
+	public int expireLeases() throws RemoteException;
+	
+	public long getExpiredLeases() throws RemoteException;
+	
+	public void setQuorum(int readquorum, int writequorum) throws RemoteException;
+	
+	public int getReadQuorum() throws RemoteException;
+	
+	public int getWriteQuorum() throws RemoteException;
+	
+	public void setQuorumStrategy(QuorumStrategy strategy) throws RemoteException;
+	
+	public QuorumStrategy getQuorumStrategy() throws RemoteException;
+	
+	public List<String> getVoters() throws RemoteException;
+	
 	public int getVersion() throws RemoteException;
 	
 	public void setVersion(int version) throws RemoteException;
@@ -31,6 +64,14 @@ public interface ProcessInterface extends Remote {
 	public String getFilename() throws RemoteException;
 	
 	public void onReceivedUpdateOperation(Message message) throws RemoteException;
+	
+	public void onReceivedTokenRequest(String process, long request) throws RemoteException;
+	
+	public void onReceivedToken(Token token) throws RemoteException;
+	
+	public long onReceivedTokenProbe(String candidate, long generation) throws RemoteException;
+	
+	public boolean holdsToken() throws RemoteException;
 
 	public void onReceivedVotersDecision(Message message) throws RemoteException;
 
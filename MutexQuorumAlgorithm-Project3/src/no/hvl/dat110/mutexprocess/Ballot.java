@@ -0,0 +1,86 @@
+package no.hvl.dat110.mutexprocess;
+
+/**
+ * The votes of one request for a lock, kept by the requesting process under the request ID. The ballot is decided as soon
+ * as the quorum grants, or as soon as enough voters deny that the quorum can no longer be reached. Votes are
+ * counted without locking
+ */
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class Ballot {
+
+	private static final int AGAINST = 1 << 15;			// grants are counted in the low 15 bits of the tally, denies above
+	private static final int CLOSED = 1 << 30;			// set once the ballot is decided or has timed out
+	private static final int COUNT = AGAINST - 1;
+
+	private final int grants;							// votes needed to win
+	private final int denies;							// votes needed to lose: the quorum is out of reach
+	private final AtomicInteger tally = new AtomicInteger();
+	private final CountDownLatch decided = new CountDownLatch(1);
+
+	/**
+	 * A ballot won by a majority (voters/2 + 1) of the voters
+	 */
+	public Ballot(int voters) {
+		this(voters, voters/2 + 1);
+	}
+
+	public Ballot(int voters, int quorum) {
+		this.grants = quorum;
+		this.denies = Math.max(voters - quorum + 1, 0);
+		if(isDecided(0))
+			close();
+	}
+
+	/**
+	 * Count a vote. A voter that did not answer is counted with a vote that is not acknowledged
+	 * @param vote
+	 * @return false if the ballot was already closed and the vote was not counted
+	 */
+	public boolean offer(Message vote) {
+		int delta = vote.isAcknowledged() ? 1 : AGAINST;
+		while(true) {
+			int state = tally.get();
+			if((state & CLOSED) != 0)
+				return false;
+
+			int next = state + delta;
+			boolean done = isDecided(next);
+			if(done)
+				next |= CLOSED;							// the deciding vote closes the ballot
+			if(tally.compareAndSet(state, next)) {
+				if(done)
+					decided.countDown();
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Wait until the ballot is decided or the timeout expires, then close it. Votes offered after this are not counted
+	 * @param timeout in ms
+	 * @return true if the quorum granted
+	 * @throws InterruptedException
+	 */
+	public boolean await(long timeout) throws InterruptedException {
+		try {
+			decided.await(timeout, TimeUnit.MILLISECONDS);	// the voters that have not answered count against
+		} finally {
+			close();
+		}
+		return (tally.get() & COUNT) >= grants;
+	}
+
+	private void close() {
+		tally.getAndUpdate(state -> state | CLOSED);
+		decided.countDown();
+	}
+
+	private boolean isDecided(int state) {
+		return (state & COUNT) >= grants || ((state >> 15) & COUNT) >= denies;
+	}
+
+}
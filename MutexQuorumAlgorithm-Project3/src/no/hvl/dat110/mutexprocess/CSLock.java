@@ -0,0 +1,312 @@
+package no.hvl.dat110.mutexprocess;
+
+/**
+ * Lock on the critical section of a process: shared by readers, held by one writer, wanted by this process for its
+ * own request, or free - replaces the CS_BUSY and WANTS_TO_ENTER_CS flags. Grants are held by process stub name and
+ * are leases. The state is immutable and replaced with compareAndSet, so concurrent votes never block each other
+ */
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+public class CSLock {
+
+	// the grants of one holder and the deadline of the lease that covers them
+	private static final class Lease {
+		final int grants;
+		final long deadline;
+
+		Lease(int grants, long deadline) {
+			this.grants = grants;
+			this.deadline = deadline;
+		}
+	}
+
+	private static final class State {
+		final Map<String, Lease> readers;	// read grants by holder - a process may hold several. Never modified
+		final String writer;				// holder of the exclusive lock
+		final long writerdeadline;
+		final boolean wanted;					// this process has asked for the lock and waits for the votes
+		final long wanteddeadline;				// a request that never completes must not keep denying the others
+		final OperationType wantedtype;			// the operation this process waits for
+		final long clock;						// Lamport timestamp of the holder's request, or of our own pending request
+
+		State(Map<String, Lease> readers, String writer, long writerdeadline, boolean wanted,
+				long wanteddeadline, OperationType wantedtype, long clock) {
+			this.readers = readers;
+			this.writer = writer;
+			this.writerdeadline = writerdeadline;
+			this.wanted = wanted;
+			this.wanteddeadline = wanteddeadline;
+			this.wantedtype = wantedtype;
+			this.clock = clock;
+		}
+
+		State withReaders(Map<String, Lease> readers) {
+			return new State(Collections.unmodifiableMap(readers), writer, writerdeadline, wanted, wanteddeadline, wantedtype, clock);
+		}
+
+		State withWriter(String writer, long writerdeadline) {
+			return new State(readers, writer, writerdeadline, wanted, wanteddeadline, wantedtype, clock);
+		}
+
+		State withWanted(boolean wanted, long wanteddeadline, OperationType wantedtype) {
+			return new State(readers, writer, writerdeadline, wanted, wanteddeadline, wantedtype, clock);
+		}
+
+		State withClock(long clock) {
+			return new State(readers, writer, writerdeadline, wanted, wanteddeadline, wantedtype, clock);
+		}
+
+		boolean isBusy() {
+			return writer != null || !readers.isEmpty();
+		}
+	}
+
+	private static final State FREE = new State(Collections.<String, Lease>emptyMap(), null, 0, false, 0, null, 0);
+
+	private final long leaseperiod;			// ms a grant is held without renewal
+	private final AtomicReference<State> state = new AtomicReference<State>(FREE);
+
+	public CSLock(long leaseperiod) {
+		this.leaseperiod = leaseperiod;
+	}
+
+	/**
+	 * Vote on a write request. Granting takes the lock for the requester
+	 * @param requester
+	 * @param requestclock Lamport timestamp of the request
+	 * @param self name of this process - breaks ties between requests with the same timestamp
+	 * @return true (GRANT) or false (DENY)
+	 */
+	public boolean vote(String requester, long requestclock, String self) {
+		return vote(requester, requestclock, OperationType.WRITE, self);
+	}
+
+	/**
+	 * Vote on a request. Readers share the lock, a writer excludes everyone
+	 * @param requester
+	 * @param requestclock Lamport timestamp of the request
+	 * @param optype READ or WRITE
+	 * @param self name of this process - breaks ties between requests with the same timestamp
+	 * @return true (GRANT) or false (DENY)
+	 */
+	public boolean vote(String requester, long requestclock, OperationType optype, String self) {
+		return vote(requester, requester, requestclock, optype, self);
+	}
+
+	/**
+	 * Vote on a request, holding the grant under holder
+	 * @param requester process that asks - breaks ties with self
+	 * @param holder the grant is held and released under this name
+	 * @param requestclock Lamport timestamp of the request
+	 * @param optype READ or WRITE
+	 * @param self name of this process
+	 * @return true (GRANT) or false (DENY)
+	 */
+	public boolean vote(String requester, String holder, long requestclock, OperationType optype, String self) {
+
+		boolean read = optype == OperationType.READ;
+		while(true) {
+			State s = state.get();
+
+			// the file is being written, or read and a writer asks: DENY
+			if(s.writer != null || (!read && !s.readers.isEmpty()))
+				return false;
+
+			// we want the file ourselves and one of the two requests writes: the lower (timestamp, process name) wins
+			boolean conflicts = !read || s.wantedtype != OperationType.READ;
+			if(s.wanted && conflicts && !precedes(requestclock, requester, s.clock, self))
+				return false;
+
+			if(state.compareAndSet(s, acquired(s, holder, requestclock, optype)))
+				return true;
+		}
+	}
+
+	private static boolean precedes(long clock1, String id1, long clock2, String id2) {
+		return clock1 < clock2 || (clock1 == clock2 && id1.compareTo(id2) <= 0);
+	}
+
+	public void want(long clock) {
+		want(clock, OperationType.WRITE);
+	}
+
+	public void want(long clock, OperationType optype) {
+		long deadline = System.currentTimeMillis() + leaseperiod;
+		update(s -> s.withWanted(true, deadline, optype).withClock(clock));
+	}
+
+	public boolean acquire(String holder, long clock) {
+		return acquire(holder, clock, OperationType.WRITE);
+	}
+
+	/**
+	 * Take the lock for holder, whose request has won the vote
+	 * @return false if someone else holds it - a writer, or for a write also a reader. The lock is left as it is
+	 */
+	public boolean acquire(String holder, long clock, OperationType optype) {
+		while(true) {
+			State s = state.get();
+			if(!isFreeFor(s, holder, optype))
+				return false;
+			if(state.compareAndSet(s, acquired(s, holder, clock, optype)))
+				return true;
+		}
+	}
+
+	// no other writer, and for a write no other reader - the grants of holder itself do not count
+	private static boolean isFreeFor(State s, String holder, OperationType optype) {
+		if(s.writer != null && !s.writer.equals(holder))
+			return false;
+		if(optype == OperationType.READ)
+			return true;
+		for(String reader : s.readers.keySet()) {
+			if(!reader.equals(holder))
+				return false;
+		}
+		return true;
+	}
+
+	private State acquired(State s, String holder, long clock, OperationType optype) {
+		long deadline = System.currentTimeMillis() + leaseperiod;
+		if(optype == OperationType.READ) {
+			Map<String, Lease> readers = new HashMap<String, Lease>(s.readers);
+			Lease lease = readers.get(holder);
+			readers.put(holder, new Lease(lease == null ? 1 : lease.grants + 1, deadline));
+			return s.withReaders(readers).withClock(clock);
+		}
+		return s.withWriter(holder, deadline).withClock(clock);
+	}
+
+	/**
+	 * Extend the leases held for holder by one lease period. A lease past its deadline is not renewed, even if it
+	 * has not been dropped yet
+	 * @return false if holder holds nothing here any more - its lease has expired or was never granted
+	 */
+	public boolean renew(String holder) {
+		while(true) {
+			State s = state.get();
+			long now = System.currentTimeMillis();
+
+			State next = s;
+			if(holder.equals(s.writer) && s.writerdeadline >= now)
+				next = next.withWriter(s.writer, now + leaseperiod);
+			Lease lease = s.readers.get(holder);
+			if(lease != null && lease.deadline >= now) {
+				Map<String, Lease> readers = new HashMap<String, Lease>(s.readers);
+				readers.put(holder, new Lease(lease.grants, now + leaseperiod));
+				next = next.withReaders(readers);
+			}
+
+			if(next == s)
+				return false;
+			if(state.compareAndSet(s, next))
+				return true;
+		}
+	}
+
+	/**
+	 * Drop the grants whose lease has run out
+	 * @param now
+	 * @return the number of grants dropped
+	 */
+	public int expire(long now) {
+		while(true) {
+			State s = state.get();
+
+			int expired = 0;
+			State next = s;
+			if(s.writer != null && s.writerdeadline < now) {
+				next = next.withWriter(null, 0);
+				expired++;
+			}
+			Map<String, Lease> readers = null;
+			for(Map.Entry<String, Lease> lease : s.readers.entrySet()) {
+				if(lease.getValue().deadline < now) {
+					if(readers == null)
+						readers = new HashMap<String, Lease>(s.readers);
+					readers.remove(lease.getKey());
+					expired += lease.getValue().grants;
+				}
+			}
+			if(readers != null)
+				next = next.withReaders(readers);
+			if(s.wanted && s.wanteddeadline < now)
+				next = next.withWanted(false, 0, null);
+
+			if(next == s || state.compareAndSet(s, next))
+				return expired;
+		}
+	}
+
+	public void release() {
+		update(s -> FREE.withClock(s.clock));
+	}
+
+	/**
+	 * Give back one grant held for holder - a late release must not free a lock granted to someone else since, and
+	 * the release of one reader must not free the others
+	 */
+	public void release(String holder) {
+		update(s -> {
+			State next = s;
+			if(holder.equals(s.writer)) {
+				next = s.withWriter(null, 0);
+			} else {
+				Lease lease = s.readers.get(holder);
+				if(lease != null) {
+					Map<String, Lease> readers = new HashMap<String, Lease>(s.readers);
+					if(lease.grants > 1)
+						readers.put(holder, new Lease(lease.grants - 1, lease.deadline));
+					else
+						readers.remove(holder);
+					next = s.withReaders(readers);
+				}
+			}
+			if(!next.isBusy() && next.wanted)
+				next = next.withWanted(false, 0, null);
+			return next;
+		});
+	}
+
+	// replace the state with f(state), retrying until no other thread has changed it in between
+	private void update(UnaryOperator<State> f) {
+		while(true) {
+			State s = state.get();
+			State next = f.apply(s);
+			if(next == s || state.compareAndSet(s, next))
+				return;
+		}
+	}
+
+	public boolean isBusy() {
+		return state.get().isBusy();
+	}
+
+	public boolean isWriteLocked() {
+		return state.get().writer != null;
+	}
+
+	public int getReaders() {
+		int n = 0;
+		for(Lease lease : state.get().readers.values())
+			n += lease.grants;
+		return n;
+	}
+
+	/**
+	 * @return the writer holding the lock, or null
+	 */
+	public String getHolder() {
+		return state.get().writer;
+	}
+
+	public long getClock() {
+		return state.get().clock;
+	}
+
+}
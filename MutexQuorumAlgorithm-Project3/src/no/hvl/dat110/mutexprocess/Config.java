@@ -3,5 +3,9 @@ package no.hvl.dat110.mutexprocess;
 public class Config {
 	
 	public static int PORT = 9080;
+	
+	public static QuorumStrategy QUORUM_STRATEGY = QuorumStrategy.MAJORITY;		// how a process picks its voters
+	
+	public static MutexEngine MUTEX_ENGINE = MutexEngine.VOTING;				// voting, or passing a token
 
 }
@@ -8,7 +8,7 @@ public class Message implements Serializable {
 	
 
 	private static final long serialVersionUID = 1L;
-	private int clock;
+	private long clock;
 	private int processID;
 	private String processStubName;
 	private OperationType optype;
@@ -17,16 +17,18 @@ public class Message implements Serializable {
 	private String filename;
 	private String newcontent;
 	private int version;
+	private long requestID;						// the lock request this message belongs to - set by the requesting process
+	private String holder;						// the grants of the request are held under this name
 	
 	public Message() throws RemoteException {
 		super();
 	}
 
-	public int getClock() {
+	public long getClock() {
 		return clock;
 	}
 	
-	public void setClock(int clock) {
+	public void setClock(long clock) {
 		this.clock = clock;
 	}
 
@@ -85,5 +87,25 @@ public class Message implements Serializable {
 	public void setNewcontent(String newcontent) {
 		this.newcontent = newcontent;
 	}
+
+	public long getRequestID() {
+		return requestID;
+	}
+
+	public void setRequestID(long requestID) {
+		this.requestID = requestID;
+	}
+
+	/**
+	 * @return the name the voters hold the grants of this request under - the stub name, unless the client gave the
+	 * request a name of its own so that concurrent requests of one process are released apart
+	 */
+	public String getHolder() {
+		return holder != null ? holder : processStubName;
+	}
+
+	public void setHolder(String holder) {
+		this.holder = holder;
+	}
 	
 }
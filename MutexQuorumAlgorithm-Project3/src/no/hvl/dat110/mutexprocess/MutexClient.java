@@ -0,0 +1,118 @@
+package no.hvl.dat110.mutexprocess;
+
+/**
+ * A client of one process: request, operate on the local copy, update or release the replicas and release the
+ * lock - the whole cycle, blocking or on a shared pool with a CompletableFuture
+ */
+
+import java.rmi.RemoteException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import no.hvl.dat110.interfaces.ProcessInterface;
+import no.hvl.dat110.util.Async;
+import no.hvl.dat110.util.Async.Abandonment;
+
+public class MutexClient {
+
+	private final ProcessInterface process;
+	private final String procname;					// stub name of the process
+
+	public MutexClient(ProcessInterface process, String procname) {
+		this.process = process;
+		this.procname = procname;
+	}
+
+	/**
+	 * @return false if the request was not granted and nothing was written
+	 */
+	public boolean write(String content) throws RemoteException {
+		return perform(OperationType.WRITE, content, null);
+	}
+
+	public boolean read() throws RemoteException {
+		return perform(OperationType.READ, null, null);
+	}
+
+	/**
+	 * Run the cycle on the shared pool. Cancelling the future, or letting it time out, before the voters have decided
+	 * releases the grants - at once, without waiting for the vote to end. Once the operation has started it runs to
+	 * the end - only the future reports the cancel or timeout
+	 * @param content
+	 * @param timeout in ms, 0 for none
+	 * @return completes with the decision of the voters
+	 */
+	public CompletableFuture<Boolean> writeAsync(String content, long timeout) {
+		return Async.run(abandoned -> perform(OperationType.WRITE, content, abandoned), timeout);
+	}
+
+	public CompletableFuture<Boolean> readAsync(long timeout) {
+		return Async.run(abandoned -> perform(OperationType.READ, null, abandoned), timeout);
+	}
+
+	// abandoned is null for a blocking call - nobody gives up on it
+	private boolean perform(OperationType optype, String content, Abandonment abandoned) throws RemoteException {
+
+		Message message = new Message();
+		message.setOptype(optype);
+		message.setNewcontent(content);
+		message.setProcessStubName(procname);
+		// a holder of its own - the voters release this request apart from the other requests of the client in flight
+		message.setHolder(procname + "/" + ThreadLocalRandom.current().nextLong());
+
+		AtomicBoolean voting = new AtomicBoolean(true);
+		if(abandoned != null) {
+			if(abandoned.getAsBoolean())
+				return false;								// nobody waits any more - don't ask the voters at all
+			// given up during the vote: the voters that have granted release now, not when the vote is over
+			abandoned.onAbandoned(() -> {
+				if(voting.get())
+					abort(message, false);
+			});
+		}
+
+		boolean decision = optype == OperationType.WRITE
+				? process.requestWriteOperation(message)
+				: process.requestReadOperation(message);
+		voting.set(false);
+
+		if(!decision || (abandoned != null && abandoned.getAsBoolean())) {
+			// lost, or nobody waits: the voters that granted release - late grants included
+			abort(message, decision);
+			return false;
+		}
+
+		// won: the voters keep their grants until the update or release below - no decision to send
+		boolean acquired = optype == OperationType.WRITE
+				? process.acquireLock(message.getHolder())
+				: process.acquireReadLock(message.getHolder());
+		if(!acquired) {
+			// our own copy is still locked by someone else - give the grants back
+			abort(message, true);
+			return false;
+		}
+		Operations op = new Operations(process, message);
+		op.performOperation();									// on the local copy
+		process.multicastUpdateOrReadReleaseLockOperation(message);	// update the replicas, or release their read grants
+		if(optype == OperationType.WRITE)
+			process.releaseLock(message.getHolder());
+		else
+			process.releaseReadLock(message.getHolder());		// only our read grant - other readers keep theirs
+		return true;
+	}
+
+	// the voters release the grants of this request only. A granted request also leaves the process - with the token,
+	// if it came with one: only a granted request may, the token may be in use by another request of the process
+	private void abort(Message message, boolean granted) {
+		try {
+			message.setAcknowledged(false);
+			process.multicastVotersDecision(message);
+			if(granted)
+				process.releaseLock(message.getHolder());
+		} catch (RemoteException e) {
+			// the leases run out
+		}
+	}
+
+}
@@ -0,0 +1,11 @@
+package no.hvl.dat110.mutexprocess;
+
+/**
+ * How a process gets the right to enter the critical section
+ */
+public enum MutexEngine {
+	
+	VOTING,			// permission from a quorum of voters - see QuorumStrategy
+	TOKEN;			// Suzuki-Kasami: the process holding the single token enters - see TokenMutex
+
+}
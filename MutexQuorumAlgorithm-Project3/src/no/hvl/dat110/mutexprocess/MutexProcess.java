@@ -9,42 +9,64 @@ import java.rmi.AccessException;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class MutexProcess extends UnicastRemoteObject implements ProcessInterface {
 
     private static final long serialVersionUID = 1L;
+    public static final long VOTE_TIMEOUT = 2000;          // ms to wait for the voters before the missing votes count against
+    public static final long LEASE_PERIOD = 10000;         // ms a granted vote is held before it expires, unless the holder renews it
+    public static final long ACQUIRE_RETRY = 10;           // ms between attempts to take a lock held by someone else
+
+    private static final ExecutorService voteexecutor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "vote-request");
+        t.setDaemon(true);
+        return t;
+    });
 
     private int processId;
     private String procStubname;
-    private int counter;
+    private AtomicLong clock;                               // Lamport local clock
 
-    private List<Message> queueACK;                        // queue for acknowledged messages
+    private Map<Long, Ballot> ballots;                      // open ballots of the requests made by this process, by request ID
+    private AtomicLong requests;                            // request ID generator
 
     private File localfile;                                    // a shared resource; each replica has own local copy
     private String filename = "file1.txt";
     private int version = 0;
     private List<String> replicas;                            // list of other processes including self known to this process
-    private boolean CS_BUSY = false;                        // Lock: indicate that critical section is being accessed (e.g. accessing a shared resource)
-    private boolean WANTS_TO_ENTER_CS = false;                // Lock: indicate process wants to enter CS
+    private CSLock cs;                                        // Lock: critical section held by a writer or shared by readers, or wanted by this process
+    private AtomicLong expiredleases;                        // grants dropped because their lease ran out
     private int N;                                            // number of replicas storing a replicated resource - Not all processes
-    private int quorum;                                        // quorum needed to be granted access
+    private int readquorum;                                    // quorum needed to be granted read access
+    private int writequorum;                                // quorum needed to be granted write access
+    private volatile QuorumStrategy strategy;               // how the voters of a request are chosen
+    private TokenMutex token;                               // the token engine - null when the processes vote
 
 
     protected MutexProcess(int procId, String stubName) throws RemoteException {
         super();
         this.processId = procId;
         this.procStubname = stubName;
-        counter = 0;
+        clock = new AtomicLong();
 
-        queueACK = new ArrayList<Message>();
-        queueACK = Collections.synchronizedList(queueACK);                // make sure to synchronize this list
+        ballots = new ConcurrentHashMap<Long, Ballot>();
+        requests = new AtomicLong();
+        cs = new CSLock(LEASE_PERIOD);
+        expiredleases = new AtomicLong();
 
         replicas = Util.getProcessReplicas();
         N = replicas.size();
-        quorum = N / 2 + 1;
+        readquorum = N / 2 + 1;
+        writequorum = N / 2 + 1;
+        strategy = Config.QUORUM_STRATEGY;
+        if (Config.MUTEX_ENGINE == MutexEngine.TOKEN)
+            token = new TokenMutex(procStubname, replicas, procStubname.equals(replicas.get(0)), LEASE_PERIOD);   // the first replica starts with the token
 
         createFile();// create a local file - this is our shared resource (item)
     }
@@ -70,138 +92,348 @@ public class MutexProcess extends UnicastRemoteObject implements ProcessInterfac
     }
 
     public void incrementclock() throws RemoteException {
-        counter++;
+        clock.incrementAndGet();
+    }
+
+    // advance the clock past a timestamp received from another process - Lamport's max(local, received) + 1
+    private long mergeclock(long received) {
+        return clock.accumulateAndGet(received, (local, remote) -> Math.max(local, remote) + 1);
+    }
+
+    public boolean acquireLock() throws RemoteException {
+        return acquireLock(procStubname);
+    }
+
+    // share the CS with the other readers - only writers are kept out
+    public boolean acquireReadLock() throws RemoteException {
+        return acquireReadLock(procStubname);
     }
 
-    public void acquireLock() throws RemoteException {
+    // the lock of one request of this process, held under the holder of the request - see Message.getHolder
+    public boolean acquireLock(String holder) throws RemoteException {
         // logical clock update and set CS variable
-        incrementclock();
-        CS_BUSY = true;
+        return acquire(holder, OperationType.WRITE);
+    }
+
+    public boolean acquireReadLock(String holder) throws RemoteException {
+        return acquire(holder, OperationType.READ);
+    }
+
+    // the lock is never taken from someone else. A grant still held for a request that lost is given back by its
+    // abort, or runs out with its lease - wait for that, at most one lease period
+    private boolean acquire(String holder, OperationType optype) throws RemoteException {
+        long timestamp = clock.incrementAndGet();
+        long deadline = System.currentTimeMillis() + LEASE_PERIOD;
+        while (!cs.acquire(holder, timestamp, optype)) {
+            if (System.currentTimeMillis() > deadline)
+                return false;
+            expireLeases();
+            try {
+                Thread.sleep(ACQUIRE_RETRY);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
     }
 
     public void releaseLocks() throws RemoteException {
 
-        // release your lock variables and logical clock update
-        CS_BUSY = false;
-        WANTS_TO_ENTER_CS = false;
+        // release the lock of this process and logical clock update - the read grants given to other readers stay
+        cs.release(procStubname);
         incrementclock();
+        if (token != null)
+            token.leave();                                  // pass the token on
+    }
+
+    // give back the lock held for holder - the grants of the other requests of this process stay
+    public void releaseLock(String holder) throws RemoteException {
+        releaseReadLock(holder);
+    }
+
+    // give back one read grant held for holder - the other readers keep theirs
+    public void releaseReadLock(String holder) throws RemoteException {
+        cs.release(holder);
+        incrementclock();
+        if (token != null && isOwn(holder))
+            token.leave();                                  // a request of this process leaves with the token
+    }
+
+    // the holder of a request of this process - its stub name, or a name the client gave the request
+    private boolean isOwn(String holder) {
+        return holder.equals(procStubname) || holder.startsWith(procStubname + "/");
+    }
+
+    /**
+     * Extend the leases held for holder by one lease period. A lease past its deadline is not renewed
+     * @return false if holder holds nothing here any more
+     */
+    public boolean renewLease(String holder) throws RemoteException {
+        return cs.renew(holder);
+    }
+
+    /**
+     * Renew the leases of the request in message on the other replicas
+     * @return the number of replicas where the lease was still held
+     */
+    public int multicastRenewLeases(Message message) throws RemoteException {
+        int held = 0;
+        for (String replica : replicas) {
+            try {
+                ProcessInterface p = Util.registryHandle(replica);
+                if (p.renewLease(message.getHolder()))
+                    held++;
+            } catch (NotBoundException e) {
+            }
+        }
+        return held;
+    }
+
+    /**
+     * Drop the grants whose lease has run out - done before every vote, so a lock lost by a crashed coordinator
+     * costs at most one lease period
+     * @return the number of grants dropped
+     */
+    public int expireLeases() throws RemoteException {
+        int expired = cs.expire(System.currentTimeMillis());
+        expiredleases.addAndGet(expired);
+        return expired;
+    }
+
+    public long getExpiredLeases() throws RemoteException {
+        return expiredleases.get();
+    }
+
+    /**
+     * Set the read and write quorums, weighted voting with one vote per replica: R + W > N so that a read sees the
+     * last write, and 2W > N so that two writes never both win
+     */
+    public void setQuorum(int readquorum, int writequorum) throws RemoteException {
+        if (readquorum < 1 || writequorum < 1 || readquorum > N || writequorum > N)
+            throw new IllegalArgumentException("quorums must be between 1 and " + N + ": R = " + readquorum + ", W = " + writequorum);
+        if (readquorum + writequorum <= N)
+            throw new IllegalArgumentException("R + W must be greater than N: R = " + readquorum + ", W = " + writequorum + ", N = " + N);
+        if (2 * writequorum <= N)
+            throw new IllegalArgumentException("2W must be greater than N: W = " + writequorum + ", N = " + N);
+
+        this.readquorum = readquorum;
+        this.writequorum = writequorum;
+    }
+
+    public int getReadQuorum() throws RemoteException {
+        return readquorum;
+    }
+
+    public int getWriteQuorum() throws RemoteException {
+        return writequorum;
+    }
+
+    /**
+     * Choose the voters of the requests made by this process from now on. All the processes must use the same
+     * strategy - a grid quorum does not meet a majority of the replicas
+     */
+    public void setQuorumStrategy(QuorumStrategy strategy) throws RemoteException {
+        this.strategy = strategy;
+    }
+
+    public QuorumStrategy getQuorumStrategy() throws RemoteException {
+        return strategy;
+    }
+
+    /**
+     * @return the processes asked for their vote by the next request of this process. The majority is taken among
+     * the configured replicas, the Maekawa quorums among the processes alive now
+     */
+    public List<String> getVoters() throws RemoteException {
+        if (strategy == QuorumStrategy.MAJORITY)
+            return strategy.voters(procStubname, replicas);
+        return strategy.voters(procStubname, Util.getLiveProcesses());
     }
 
     public boolean requestWriteOperation(Message message) throws RemoteException {
-        incrementclock();                                // increment clock
-        message.setClock(counter);                        // set the timestamp of message
+        long timestamp = clock.incrementAndGet();        // increment clock
+        message.setClock(timestamp);                      // set the timestamp of message
         message.setProcessID(processId);                // set the process ID
         message.setOptype(no.hvl.dat110.mutexprocess.OperationType.WRITE);
 
-        WANTS_TO_ENTER_CS = true;
+        if (token != null)
+            return enterWithToken(message);
+
+        cs.want(timestamp, OperationType.WRITE);
 
-        // multicast read request to start the voting to N/2 + 1 replicas (majority) - optimal. You could as well send to all the replicas that have the file
-        boolean approved = multicastMessage(message, quorum);
+        // multicast write request to start the voting - granted by W replicas (N/2 + 1 by default), or by the
+        // whole quorum of this process
+        boolean approved = multicastMessage(message, writequorum);
 
         return approved;
 
     }
 
     public boolean requestReadOperation(Message message) throws RemoteException {
-        incrementclock();                                // increment clock
-        message.setClock(counter);                        // set the timestamp of message
+        long timestamp = clock.incrementAndGet();        // increment clock
+        message.setClock(timestamp);                      // set the timestamp of message
         message.setProcessID(processId);                // set the process ID
         message.setOptype(no.hvl.dat110.mutexprocess.OperationType.READ);
 
-        WANTS_TO_ENTER_CS = true;
+        if (token != null)
+            return enterWithToken(message);
 
-        // multicast read request to start the voting to N/2 + 1 replicas (majority) - optimal. You could as well send to all the replicas that have the file
-        boolean approved = multicastMessage(message, quorum);
+        cs.want(timestamp, OperationType.READ);
+
+        // multicast read request to start the voting - granted by R replicas (N/2 + 1 by default), or by the whole
+        // quorum of this process
+        boolean approved = multicastMessage(message, readquorum);
 
         return approved;
     }
 
-    // multicast message to N/2 + 1 processes (random processes)
+    // wait for the token instead of the votes - at once if this process holds it unused
+    private boolean enterWithToken(Message message) {
+        boolean granted = false;
+        try {
+            granted = token.enter(LEASE_PERIOD);                    // a long write keeps the token - not lost yet
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        message.setAcknowledged(granted);                          // the decision travels with the request
+        return granted;
+    }
+
+    @Override
+    public void onReceivedTokenRequest(String process, long request) throws RemoteException {
+        if (token != null)
+            token.requested(process, request);
+    }
+
+    @Override
+    public void onReceivedToken(Token t) throws RemoteException {
+        if (token != null)
+            token.received(t);
+    }
+
+    @Override
+    public long onReceivedTokenProbe(String candidate, long generation) throws RemoteException {
+        return token == null ? -1 : token.probed(candidate, generation);
+    }
+
+    @Override
+    public boolean holdsToken() throws RemoteException {
+        return token != null && token.holdsToken();
+    }
+
+    // multicast message to the voters at once - granted as soon as n of them grant (all of them for a Maekawa quorum),
+    // denied once that is out of reach
     private boolean multicastMessage(Message message, int n) throws AccessException, RemoteException {
 
-        replicas.remove(this.procStubname);            // remove this process from the list
+        List<String> voters = getVoters();
+        if (strategy.isUnanimous())
+            n = voters.size();
 
+        // a ballot of its own for this request - votes of concurrent requests are never mixed
+        long requestID = requests.incrementAndGet();
+        message.setRequestID(requestID);
+        Ballot ballot = new Ballot(voters.size(), n);
+        ballots.put(requestID, ballot);
 
-        // randomize - shuffle list each time - to get random processes each time
-        Collections.shuffle(replicas);
+        for (String voter : voters) {
+            voteexecutor.execute(() -> requestVote(voter, message));
+        }
 
-        // multicast message to N/2 + 1 processes (random processes) - block until feedback is received
-        for (int i = 0; i < n; i++) {
-            String rep = replicas.get(i);
-            try {
-                ProcessInterface p = Util.registryHandle(rep);
+        boolean granted = false;
+        try {
+            granted = ballot.await(VOTE_TIMEOUT);                    // one round trip to the fastest quorum
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            ballots.remove(requestID);                              // decided - later votes find no ballot
+        }
 
-                // do something with the acknowledgement you received from the voters - Idea: use the queueACK to collect GRANT/DENY messages and make sure queueACK is synchronized!!!
-                synchronized (queueACK) {
-                    Message m = p.onMessageReceived(message);
-                    queueACK.add(m);
-                }
+        message.setAcknowledged(granted);                          // the decision travels with the request
+        return granted;
+    }
+
+    // ask one voter - a vote that arrives after the ballot was decided is not counted, so a late grant is given back
+    private void requestVote(String voter, Message message) {
 
-            } catch (Exception e) {
+        Message vote = null;
+        ProcessInterface p = null;
+        try {
+            p = Util.registryHandle(voter);
+            vote = p.onMessageReceived(message);
+        } catch (RemoteException | NotBoundException e) {
+            //
+        }
 
+        if (vote == null) {
+            try {
+                vote = new Message();                               // no answer - counts against
+            } catch (RemoteException e) {
+                return;
             }
+            vote.setProcessStubName(voter);
+            vote.setRequestID(message.getRequestID());
         }
 
-        // compute election result - Idea call majorityAcknowledged()
-        return majorityAcknowledged();
+        mergeclock(vote.getClock());
+        Ballot ballot = ballots.get(vote.getRequestID());
+        boolean counted = ballot != null && ballot.offer(vote);
+        if (!counted && vote.isAcknowledged())
+            releaseVote(p, message);
+    }
+
+    // tell a straggler that granted too late to release the lock it holds for this request
+    private void releaseVote(ProcessInterface p, Message message) {
+        try {
+            Message release = new Message();
+            release.setProcessID(message.getProcessID());
+            release.setProcessStubName(message.getProcessStubName());
+            release.setHolder(message.getHolder());
+            release.setClock(message.getClock());
+            release.setRequestID(message.getRequestID());
+            release.setOptype(message.getOptype());
+            release.setAcknowledged(false);
+            p.onReceivedVotersDecision(release);
+        } catch (RemoteException e) {
+            //
+        }
     }
 
     @Override
     public Message onMessageReceived(no.hvl.dat110.mutexprocess.Message message) throws RemoteException {
 
-        // increment the local clock
-        incrementclock();
+        // merge the timestamp of the request into the local clock
+        long timestamp = mergeclock(message.getClock());
 
-        // Hint: for all 3 cases, use Message to send GRANT or DENY. e.g. message.setAcknowledgement(true) = GRANT
+        // a lease lost by its holder must not cost a denied vote
+        expireLeases();
 
+        // Hint: for all 3 cases, use Message to send GRANT or DENY. e.g. message.setAcknowledgement(true) = GRANT
 
         /**
+         *  decided in one compareAndSet on the CS state - see CSLock.vote. Readers share the resource: a read
+         *  conflicts only with a writer, a write with everyone
          *  case 1: Receiver is not accessing shared resource and does not want to: GRANT, acquirelock and reply
-         */
-        if (!WANTS_TO_ENTER_CS && !CS_BUSY) {
-            message.setAcknowledged(true);
-            acquireLock();
-            return message;
-        }
-
-        /**
          *  case 2: Receiver already has access to the resource: DENY and reply
+         *  case 3: Receiver wants to access resource but is yet to - the request with the lower (timestamp, process
+         *  name) wins: GRANT if it is the received one, acquirelock and reply
          */
-        if (CS_BUSY) {
-            message.setAcknowledged(false);
-            return message;
-        }
-
-        /**
-         *  case 3: Receiver wants to access resource but is yet to (compare own multicast message to received message
-         *  the message with lower timestamp wins) - GRANT if received is lower, acquirelock and reply
-         */
-        int recClock = message.getClock();
-        if (recClock < this.counter) {
-            message.setAcknowledged(true);
-            acquireLock();
-        }
-        message.setAcknowledged(false);
+        boolean grant = cs.vote(message.getProcessStubName(), message.getHolder(), message.getClock(), message.getOptype(),
+                procStubname);
+        message.setAcknowledged(grant);
+        message.setClock(timestamp);
         return message;
     }
 
-    public boolean majorityAcknowledged() throws RemoteException {
-
-        // count the number of yes (i.e. where message.isAcknowledged = true)
-        // check if it is the majority or not
-        // return the decision (true or false)
-        long pro = queueACK.stream().filter(a -> a.isAcknowledged()).count();
-        long against = queueACK.stream().filter(a -> !a.isAcknowledged()).count();
-        return pro > against;
-    }
-
 
     @Override
     public void onReceivedVotersDecision(no.hvl.dat110.mutexprocess.Message message) throws RemoteException {
 
         // release CS lock if voter initiator says he was denied access bcos he lacks majority votes
+        // only the grant held for the initiator - not a lock granted to someone else since
         if (!message.isAcknowledged()) {
-            releaseLocks();
+            cs.release(message.getHolder());
+            mergeclock(message.getClock());
         }
 
         // otherwise lock is kept
@@ -218,7 +450,8 @@ public class MutexProcess extends UnicastRemoteObject implements ProcessInterfac
         if (message.getOptype().equals(no.hvl.dat110.mutexprocess.OperationType.WRITE)) {
             no.hvl.dat110.mutexprocess.Operations op = new no.hvl.dat110.mutexprocess.Operations(this, message);
             op.performOperation();
-            releaseLocks();
+            cs.release(message.getHolder());                     // only the writer's grant
+            incrementclock();
         }
 
 
@@ -241,9 +474,8 @@ public class MutexProcess extends UnicastRemoteObject implements ProcessInterfac
 
     @Override
     public void multicastVotersDecision(no.hvl.dat110.mutexprocess.Message message) throws RemoteException {
-        // multicast voters decision to the rest of the replicas
-        boolean decision = majorityAcknowledged();
-        message.setAcknowledged(decision);
+        // multicast voters decision to the rest of the replicas - the decision of this request, set in the message
+        // by the caller
 
         for (String replica : replicas) {
             try {
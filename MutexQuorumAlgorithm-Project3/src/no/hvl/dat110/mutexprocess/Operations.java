@@ -78,7 +78,7 @@ public class Operations {
 			String stub = replicas.get(i);
 			try {
 				ProcessInterface p = Util.registryHandle(stub);
-				p.releaseLocks();				
+				p.releaseReadLock(message.getHolder());				// only the read grant of this request				
 			} catch (NotBoundException e) {
 
 				e.printStackTrace();
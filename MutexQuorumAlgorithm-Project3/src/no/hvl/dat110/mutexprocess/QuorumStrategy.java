@@ -0,0 +1,131 @@
+package no.hvl.dat110.mutexprocess;
+
+/**
+ * How the voters of a request are chosen from the processes. MAJORITY asks every other replica and needs R or W of
+ * them. GRID and PROJECTIVE_PLANE are Maekawa quorums: every process has a quorum of about sqrt(N) processes,
+ * itself included, any two quorums share a process, and every process of the quorum must grant.
+ * The quorums are built from the live membership, sorted by name, so processes that see the same members build the
+ * same quorums. Positions past the last member wrap around to the first ones - a quorum maps to a smaller one that
+ * still meets every other
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+public enum QuorumStrategy {
+
+	MAJORITY {
+		@Override
+		public List<String> voters(String process, List<String> members) {
+			List<String> voters = new ArrayList<String>(members);
+			voters.remove(process);
+			return voters;
+		}
+	},
+
+	/**
+	 * The processes in a k x k grid, k = ceil(sqrt(N)). The quorum of a process is its row and its column: 2k - 1
+	 * processes, and the row of one meets the column of the other
+	 */
+	GRID {
+		@Override
+		public List<String> voters(String process, List<String> members) {
+			List<String> sorted = sorted(process, members);
+			int n = sorted.size();
+			int k = (int) Math.ceil(Math.sqrt(n));
+			int row = sorted.indexOf(process) / k;
+			int column = sorted.indexOf(process) % k;
+
+			Set<String> voters = new LinkedHashSet<String>();
+			for(int i = 0; i < k; i++) {
+				voters.add(sorted.get((row*k + i) % n));
+				voters.add(sorted.get((i*k + column) % n));
+			}
+			return new ArrayList<String>(voters);
+		}
+	},
+
+	/**
+	 * The processes on the points of a finite projective plane of prime order q, the least with q^2 + q + 1 >= N
+	 * points. The quorum of a process is a line through its point: q + 1 processes, and two lines always meet in a
+	 * point
+	 */
+	PROJECTIVE_PLANE {
+		@Override
+		public List<String> voters(String process, List<String> members) {
+			List<String> sorted = sorted(process, members);
+			int n = sorted.size();
+			int q = 2;
+			while(q*q + q + 1 < n || !isPrime(q))
+				q++;
+			int[][] points = points(q);
+
+			// the line through the point of the process and the next point - spreads the lines over the plane
+			int p = sorted.indexOf(process);
+			int[] line = cross(points[p], points[(p + 1) % points.length], q);
+
+			Set<String> voters = new LinkedHashSet<String>();
+			for(int i = 0; i < points.length; i++) {
+				int[] x = points[i];
+				if((x[0]*line[0] + x[1]*line[1] + x[2]*line[2]) % q == 0)
+					voters.add(sorted.get(i % n));
+			}
+			return new ArrayList<String>(voters);
+		}
+	};
+
+	/**
+	 * @param process the requesting process
+	 * @param members the processes that are alive
+	 * @return the processes to ask for their vote
+	 */
+	public abstract List<String> voters(String process, List<String> members);
+
+	/**
+	 * @return true if every voter must grant - otherwise the read or write quorum of the voters is enough
+	 */
+	public boolean isUnanimous() {
+		return this != MAJORITY;
+	}
+
+	// the members in the same order on every process, with process among them even if it is not registered yet
+	private static List<String> sorted(String process, List<String> members) {
+		List<String> sorted = new ArrayList<String>(members);
+		if(!sorted.contains(process))
+			sorted.add(process);
+		Collections.sort(sorted);
+		return sorted;
+	}
+
+	private static boolean isPrime(int q) {
+		for(int d = 2; d*d <= q; d++)
+			if(q % d == 0)
+				return false;
+		return true;
+	}
+
+	// the q^2 + q + 1 points of the plane as normalized triples over GF(q): (1,a,b), (0,1,a) and (0,0,1)
+	private static int[][] points(int q) {
+		int[][] points = new int[q*q + q + 1][];
+		int i = 0;
+		for(int a = 0; a < q; a++)
+			for(int b = 0; b < q; b++)
+				points[i++] = new int[] {1, a, b};
+		for(int a = 0; a < q; a++)
+			points[i++] = new int[] {0, 1, a};
+		points[i] = new int[] {0, 0, 1};
+		return points;
+	}
+
+	// the line through two distinct points: their cross product mod q
+	private static int[] cross(int[] u, int[] v, int q) {
+		return new int[] {
+				Math.floorMod(u[1]*v[2] - u[2]*v[1], q),
+				Math.floorMod(u[2]*v[0] - u[0]*v[2], q),
+				Math.floorMod(u[0]*v[1] - u[1]*v[0], q)};
+	}
+
+}
@@ -0,0 +1,46 @@
+package no.hvl.dat110.mutexprocess;
+
+/**
+ * The privilege of the Suzuki-Kasami algorithm: the process that holds it may enter the critical section. It carries
+ * the number of the last request served for each process and the processes waiting for it. A token regenerated after
+ * a loss has a higher generation, and a process that has seen it drops the tokens of older generations
+ */
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+public class Token implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long generation;
+	private final Map<String, Long> served;			// LN: number of the last request served, by process
+	private final Deque<String> queue;				// processes waiting for the token, in the order it is passed on
+
+	public Token(long generation, Map<String, Long> served) {
+		this.generation = generation;
+		this.served = new HashMap<String, Long>(served);
+		this.queue = new ArrayDeque<String>();
+	}
+
+	public long getGeneration() {
+		return generation;
+	}
+
+	public long getServed(String process) {
+		Long n = served.get(process);
+		return n == null ? 0 : n;
+	}
+
+	public void setServed(String process, long request) {
+		served.put(process, request);
+	}
+
+	public Deque<String> getQueue() {
+		return queue;
+	}
+
+}
@@ -0,0 +1,309 @@
+package no.hvl.dat110.mutexprocess;
+
+/**
+ * Token-based mutual exclusion, after Suzuki and Kasami. A process enters the critical section while it holds the
+ * token. To get it, it sends its request number to every other process, and the holder passes the token on when it
+ * leaves. A process that holds the token and is not using it enters again without sending a message.
+ * A requester that waits in vain regenerates the token. It asks every process for a promise to drop the tokens of
+ * older generations. Every process that answers must promise - the holder refuses, however slow it is - and they must
+ * be a majority. A process is taken to have crashed with any token it held only once it has left the registry, or has
+ * not answered for the crash timeout.
+ * Readers are not shared: the token admits one process at a time
+ */
+
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import no.hvl.dat110.interfaces.ProcessInterface;
+import no.hvl.dat110.util.Util;
+
+public class TokenMutex {
+
+	public static final long PROBE_RETRY = 500;		// ms between probes of a process that does not answer
+
+	private static final ExecutorService tokenexecutor = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "token-transfer");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final String self;
+	private final List<String> processes;
+	private final long crashtimeout;					// ms a process must stay silent to be taken to have crashed
+	private final Map<String, Long> requested = new HashMap<String, Long>();	// RN: highest request number seen, by process
+	private Token token;								// null unless this process holds the token
+	private boolean incs;								// in the critical section, with the token
+	private boolean waiting;							// our request is out and the token has not arrived
+	private long generation;							// highest token generation seen or promised
+
+	/**
+	 * @param self stub name of this process
+	 * @param processes every process, this one included
+	 * @param holder true for the one process that starts with the token
+	 * @param crashtimeout in ms - a process that is still in the registry but does not answer probes for this long is
+	 * taken to have crashed
+	 */
+	public TokenMutex(String self, List<String> processes, boolean holder, long crashtimeout) {
+		this.self = self;
+		this.processes = new ArrayList<String>(processes);
+		this.crashtimeout = crashtimeout;
+		if(holder)
+			token = new Token(0, new HashMap<String, Long>());
+	}
+
+	/**
+	 * Enter the critical section: at once if this process holds an idle token, otherwise once the token arrives.
+	 * If it does not arrive within the timeout the token is taken to be lost and is regenerated
+	 * @param timeout in ms
+	 * @return false if the token neither arrived nor could be regenerated - leave() is not needed then
+	 */
+	public boolean enter(long timeout) throws InterruptedException {
+
+		long deadline = System.currentTimeMillis() + timeout;
+		long request;
+		synchronized(this) {
+			while(incs || waiting) {						// another thread of this process is in or on its way
+				long left = deadline - System.currentTimeMillis();
+				if(left <= 0)
+					return false;
+				wait(left);
+			}
+			if(token != null) {
+				incs = true;								// no messages
+				return true;
+			}
+			request = requested(self) + 1;
+			requested.put(self, request);
+			waiting = true;
+		}
+
+		for(String process : processes) {
+			if(!process.equals(self))
+				tokenexecutor.execute(() -> sendRequest(process, request));
+		}
+
+		synchronized(this) {
+			while(waiting) {
+				long left = deadline - System.currentTimeMillis();
+				if(left <= 0)
+					break;
+				wait(left);
+			}
+			if(!waiting)
+				return true;								// received() has let us in
+			waiting = false;
+			notifyAll();
+		}
+
+		if(!regenerate())
+			return false;
+		synchronized(this) {
+			if(token == null || incs)
+				return false;
+			incs = true;
+			return true;
+		}
+	}
+
+	/**
+	 * Leave the critical section and pass the token to the next process waiting for it
+	 */
+	public void leave() {
+		Token next;
+		String to;
+		synchronized(this) {
+			if(!incs)
+				return;
+			incs = false;
+			token.setServed(self, requested(self));
+			to = nextHolder();
+			next = release(to);
+			notifyAll();
+		}
+		if(to != null)
+			tokenexecutor.execute(() -> sendToken(to, next));
+	}
+
+	/**
+	 * A request of another process - the token is passed to it at once if this process holds it idle
+	 */
+	public void requested(String process, long request) {
+		Token next;
+		synchronized(this) {
+			if(request > requested(process))
+				requested.put(process, request);
+			if(token == null || incs || request <= token.getServed(process))
+				return;
+			next = release(process);
+		}
+		tokenexecutor.execute(() -> sendToken(process, next));
+	}
+
+	/**
+	 * The token has arrived. It lets in a waiting request, or is passed on. A token older than the last generation
+	 * seen is dropped - it was regenerated while this one was taken to be lost
+	 */
+	public void received(Token arrived) {
+		Token next;
+		String to;
+		synchronized(this) {
+			if(arrived.getGeneration() < generation || token != null)
+				return;
+			generation = arrived.getGeneration();
+			token = arrived;
+			if(waiting) {
+				waiting = false;
+				incs = true;
+				notifyAll();
+				return;
+			}
+			token.setServed(self, requested(self));		// a request we gave up on is not served any more
+			to = nextHolder();
+			next = release(to);
+		}
+		if(to != null)
+			tokenexecutor.execute(() -> sendToken(to, next));
+	}
+
+	/**
+	 * A process wants to regenerate the token with a new generation
+	 * @return the number of the last request of this process that was served, or -1 if this process refuses: it
+	 * holds the token or has promised a newer generation
+	 */
+	public synchronized long probed(String candidate, long newgeneration) {
+		if(token != null || newgeneration <= generation)
+			return -1;
+		generation = newgeneration;
+		return waiting ? requested(self) - 1 : requested(self);
+	}
+
+	public synchronized boolean holdsToken() {
+		return token != null;
+	}
+
+	// make a new token if no process that answers holds one - the promises of a majority make it the only one
+	private boolean regenerate() {
+
+		long newgeneration;
+		Map<String, Long> served = new HashMap<String, Long>();
+		synchronized(this) {
+			if(token != null)
+				return true;
+			newgeneration = ++generation;
+			served.put(self, requested(self) - 1);
+		}
+
+		Set<String> silent = new HashSet<String>();
+		for(String process : processes) {
+			if(process.equals(self))
+				continue;
+			try {
+				long last = probe(process, newgeneration);
+				if(last < 0)
+					return false;
+				served.put(process, last);
+			} catch(RemoteException e) {
+				silent.add(process);
+			} catch(NotBoundException e) {
+				// gone from the registry - crashed, with the token perhaps
+			}
+		}
+
+		// a process that does not answer may only be slow, and hold the token - ask it again until it answers or
+		// has been silent for the crash timeout
+		long deadline = System.currentTimeMillis() + crashtimeout;
+		while(!silent.isEmpty() && System.currentTimeMillis() < deadline) {
+			try {
+				Thread.sleep(PROBE_RETRY);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			for(Iterator<String> it = silent.iterator(); it.hasNext();) {
+				String process = it.next();
+				try {
+					long last = probe(process, newgeneration);
+					if(last < 0)
+						return false;
+					served.put(process, last);
+					it.remove();
+				} catch(RemoteException e) {
+					// still silent
+				} catch(NotBoundException e) {
+					it.remove();
+				}
+			}
+		}
+		if(2*served.size() <= processes.size())
+			return false;
+
+		synchronized(this) {
+			if(token != null || generation != newgeneration)
+				return token != null;
+			for(String process : processes) {
+				if(!served.containsKey(process))
+					served.put(process, requested(process));
+			}
+			token = new Token(newgeneration, served);
+			return true;
+		}
+	}
+
+	// ask a process for its promise - see probed
+	private long probe(String process, long newgeneration) throws RemoteException, NotBoundException {
+		ProcessInterface p = Util.registryHandle(process);
+		return p.onReceivedTokenProbe(self, newgeneration);
+	}
+
+	// append the processes with a request not yet served to the queue, and take the first one out
+	private String nextHolder() {
+		for(String process : processes) {
+			if(!token.getQueue().contains(process) && requested(process) > token.getServed(process))
+				token.getQueue().add(process);
+		}
+		return token.getQueue().poll();
+	}
+
+	// give up the token if it goes to someone - returns the token to send
+	private Token release(String to) {
+		Token t = token;
+		if(to != null)
+			token = null;
+		return t;
+	}
+
+	private long requested(String process) {
+		Long n = requested.get(process);
+		return n == null ? 0 : n;
+	}
+
+	private void sendRequest(String process, long request) {
+		try {
+			Util.registryHandle(process).onReceivedTokenRequest(self, request);
+		} catch(RemoteException | NotBoundException e) {
+			//
+		}
+	}
+
+	// a token that cannot be delivered comes back, and the request of the crashed process counts as served
+	private void sendToken(String process, Token t) {
+		try {
+			Util.registryHandle(process).onReceivedToken(t);
+		} catch(RemoteException | NotBoundException e) {
+			synchronized(this) {
+				t.setServed(process, requested(process));
+			}
+			received(t);
+		}
+	}
+
+}
@@ -0,0 +1,108 @@
+package no.hvl.dat110.util;
+
+/**
+ * Runs a blocking cycle of remote calls on a shared pool and reports its outcome through a CompletableFuture. The
+ * cycle is told when nobody waits for it any more - the future was cancelled or timed out - so that it can give
+ * back what it holds
+ */
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+
+public class Async {
+
+	private static final ExecutorService pool = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "async-call");
+		t.setDaemon(true);
+		return t;
+	});
+	private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "async-timer");
+		t.setDaemon(true);
+		return t;
+	});
+
+	/**
+	 * Run cycle on the pool. Cancelling the future, or letting it time out, abandons the cycle: it is not started if
+	 * it has not started yet, and is told through the Abandonment it gets otherwise
+	 * @param cycle
+	 * @param timeout in ms, 0 for none
+	 * @return completes with the result of the cycle, or exceptionally with what it threw or a TimeoutException
+	 */
+	public static <T> CompletableFuture<T> run(Cycle<T> cycle, long timeout) {
+
+		CompletableFuture<T> result = new CompletableFuture<T>();
+		Abandonment abandoned = new Abandonment(result);
+		pool.execute(() -> {
+			if(result.isDone())
+				return;										// cancelled before it started
+			try {
+				T value = cycle.run(abandoned);
+				abandoned.finished = true;
+				result.complete(value);
+			} catch (Exception e) {
+				abandoned.finished = true;
+				result.completeExceptionally(e);
+			}
+		});
+
+		if(timeout > 0) {
+			ScheduledFuture<?> timeouttask = timer.schedule(
+					() -> result.completeExceptionally(new TimeoutException("no answer after "+timeout+" ms")),
+					timeout, TimeUnit.MILLISECONDS);
+			result.whenComplete((r, e) -> timeouttask.cancel(false));
+		}
+		return result;
+	}
+
+	/**
+	 * Run task on the pool every period ms, starting one period from now, until the returned future is cancelled
+	 */
+	public static ScheduledFuture<?> repeat(Runnable task, long period) {
+		return timer.scheduleAtFixedRate(() -> pool.execute(task), period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * A cycle of blocking calls that may be abandoned while it runs
+	 */
+	public interface Cycle<T> {
+		T run(Abandonment abandoned) throws Exception;
+	}
+
+	/**
+	 * True once nobody waits for the cycle any more
+	 */
+	public static class Abandonment implements BooleanSupplier {
+
+		private final CompletableFuture<?> result;
+		private volatile boolean finished;				// the cycle has returned or thrown
+
+		private Abandonment(CompletableFuture<?> result) {
+			this.result = result;
+		}
+
+		@Override
+		public boolean getAsBoolean() {
+			return result.isDone();
+		}
+
+		/**
+		 * Run action on the pool as soon as the cycle is abandoned, at once if it already is - not if the cycle has
+		 * finished by then. Ask getAsBoolean as well where the action must not be missed: it may come too late for a
+		 * cycle that has moved on
+		 */
+		public void onAbandoned(Runnable action) {
+			result.whenCompleteAsync((r, e) -> {
+				if(!finished)
+					action.run();
+			}, pool);
+		}
+	}
+
+}
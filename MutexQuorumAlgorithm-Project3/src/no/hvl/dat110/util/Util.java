@@ -6,6 +6,7 @@ import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import no.hvl.dat110.interfaces.ProcessInterface;
@@ -40,6 +41,22 @@ public class Util {
 		
 	}
 	
+	/**
+	 * @return the processes bound in the registry now
+	 */
+	public static List<String> getLiveProcesses() {
+		List<String> processes = new ArrayList<String>();
+		Registry registry = locateRegistry();
+		if(registry == null)
+			return processes;
+		try {
+			processes.addAll(Arrays.asList(registry.list()));
+		} catch (RemoteException e) {
+			//
+		}
+		return processes;
+	}
+	
 	public static int numOfReplicas() {
 		
 		return getProcessReplicas().size();				//